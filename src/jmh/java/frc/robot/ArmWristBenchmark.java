@@ -0,0 +1,91 @@
+package frc.robot;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the hardware free math that ArmWrist.processPIDsAndDriveMotors does every loop:
+ * the pot to joint angle mapping and the A cos(theta) + M feed forward, both computed and from JointTable.
+ * Run with: gradlew jmh
+ */
+@State(Scope.Thread)
+public class ArmWristBenchmark {
+  static final int SAMPLES = 1024; //power of 2 so we can mask instead of mod
+  double[] armPots   = new double[SAMPLES];
+  double[] wristPots = new double[SAMPLES];
+  double[] pidOuts   = new double[SAMPLES];
+  int index = 0;
+
+  @Setup
+  public void setup()
+  {
+    java.util.Random rand = new java.util.Random(6423);
+    for(int i = 0; i < SAMPLES; i++)
+    {
+      //sweep the whole calibrated range of each joint, in [-1.0 to 1.0] pot units
+      armPots[i]   = (ArmWrist.ARM_POT_FULL_DOWN
+                     + (ArmWrist.ARM_POT_FULL_UP - ArmWrist.ARM_POT_FULL_DOWN) * rand.nextDouble()) / ArmWrist.ARM_DIGITAL_RANGE;
+      wristPots[i] = (ArmWrist.WRIST_POT_FULL_DOWN
+                     + (ArmWrist.WRIST_POT_FULL_UP - ArmWrist.WRIST_POT_FULL_DOWN) * rand.nextDouble()) / ArmWrist.WRIST_DIGITAL_RANGE;
+      pidOuts[i]   = rand.nextDouble() * 2.0 - 1.0;
+    }
+  }
+
+  @Benchmark
+  public double calculateJointAngle()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    return ArmWrist.calculateJointAngle(armPots[index],
+                                        ArmWrist.ARM_DIGITAL_RANGE,
+                                        ArmWrist.ARM_ANGLE_FULL_UP,
+                                        ArmWrist.ARM_ANGLE_FULL_DOWN,
+                                        ArmWrist.ARM_POT_FULL_UP,
+                                        ArmWrist.ARM_POT_FULL_DOWN,
+                                        ArmWrist.ARM_POT_STRAIGHT_OUT);
+  }
+
+  @Benchmark
+  public double feedForward()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    double armACosTheta = ArmWrist.gravityDrive(ArmWrist.ARM_DRIVE_M, ArmWrist.ARM_DRIVE_C, 45.0 * pidOuts[index]);
+    return ArmWrist.finalDrive(pidOuts[index], ArmWrist.ARM_DRIVE_M, armACosTheta);
+  }
+
+  /** Everything processPIDsAndDriveMotors computes for both joints, minus the pot reads and motor writes. */
+  @Benchmark
+  public double fullFeedForwardPath()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    double armAngle   = ArmWrist.calculateJointAngle(armPots[index],
+                                                     ArmWrist.ARM_DIGITAL_RANGE,
+                                                     ArmWrist.ARM_ANGLE_FULL_UP,
+                                                     ArmWrist.ARM_ANGLE_FULL_DOWN,
+                                                     ArmWrist.ARM_POT_FULL_UP,
+                                                     ArmWrist.ARM_POT_FULL_DOWN,
+                                                     ArmWrist.ARM_POT_STRAIGHT_OUT);
+    double wristAngle = ArmWrist.calculateJointAngle(wristPots[index],
+                                                     ArmWrist.WRIST_DIGITAL_RANGE,
+                                                     ArmWrist.WRIST_ANGLE_FULL_UP,
+                                                     ArmWrist.WRIST_ANGLE_FULL_DOWN,
+                                                     ArmWrist.WRIST_POT_FULL_UP,
+                                                     ArmWrist.WRIST_POT_FULL_DOWN,
+                                                     ArmWrist.WRIST_POT_STRAIGHT_OUT);
+    double armACosTheta   = ArmWrist.gravityDrive(ArmWrist.ARM_DRIVE_M,   ArmWrist.ARM_DRIVE_C,   armAngle);
+    double wristACosTheta = ArmWrist.gravityDrive(ArmWrist.WRIST_DRIVE_M, ArmWrist.WRIST_DRIVE_C, wristAngle + armAngle);
+    return ArmWrist.finalDrive(pidOuts[index], ArmWrist.ARM_DRIVE_M, armACosTheta)
+         + ArmWrist.finalDrive(pidOuts[index], ArmWrist.WRIST_DRIVE_M, wristACosTheta);
+  }
+
+  /** fullFeedForwardPath with the lookup tables ArmWristControl uses. */
+  @Benchmark
+  public double tableFeedForwardPath()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    double armAngle   = ArmWristControl.ARM_TABLE.angle(armPots[index]);
+    double wristAngle = ArmWristControl.WRIST_TABLE.angle(wristPots[index]);
+    double armACosTheta   = ArmWristControl.ARM_TABLE.gravity(armAngle);
+    double wristACosTheta = ArmWristControl.WRIST_TABLE.gravity(wristAngle + armAngle);
+    return ArmWrist.finalDrive(pidOuts[index], ArmWrist.ARM_DRIVE_M, armACosTheta)
+         + ArmWrist.finalDrive(pidOuts[index], ArmWrist.WRIST_DRIVE_M, wristACosTheta);
+  }
+}
@@ -0,0 +1,65 @@
+package frc.robot;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures MiniPID.getOutput(actual, setpoint) in each of its modes.
+ * The arm PID gains from ArmWrist are used so the numbers match what runs on the robot.
+ * Run with: gradlew jmh
+ */
+@State(Scope.Thread)
+public class MiniPIDBenchmark {
+  //Each mode turns on one of the optional features of MiniPID
+  @Param({"plain", "rampRate", "outputFilter", "maxIOutput", "setpointRange", "all"})
+  String mode;
+
+  //Pot readings are replayed from a table so the JIT can not fold the calculation away
+  static final int SAMPLES = 1024; //power of 2 so we can mask instead of mod
+  double[] actuals = new double[SAMPLES];
+  int index = 0;
+  MiniPID pid;
+
+  @Setup
+  public void setup()
+  {
+    pid = new MiniPID(ArmWrist.P_ARM, ArmWrist.I_ARM, ArmWrist.D_ARM);
+    switch(mode)
+    {
+      case "rampRate":
+        pid.setOutputRampRate(0.05);
+        break;
+      case "outputFilter":
+        pid.setOutputFilter(0.1);
+        break;
+      case "maxIOutput":
+        pid.setMaxIOutput(0.4);
+        break;
+      case "setpointRange":
+        pid.setSetpointRange(0.01);
+        break;
+      case "all":
+        pid.setOutputLimits(1.0);
+        pid.setMaxIOutput(0.4);
+        pid.setOutputRampRate(0.05);
+        pid.setOutputFilter(0.1);
+        pid.setSetpointRange(0.01);
+        break;
+      case "plain":
+      default:
+        break;
+    }
+    //a noisy arm slowly moving from full down toward straight out, in the [-1.0 to 1.0] pot units
+    java.util.Random rand = new java.util.Random(6423);
+    for(int i = 0; i < SAMPLES; i++)
+    {
+      actuals[i] = -0.86 + 0.42 * i / SAMPLES + 0.005 * rand.nextGaussian();
+    }
+  }
+
+  @Benchmark
+  public double getOutput()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    return pid.getOutput(actuals[index], ArmWrist.ARM_POT_STRAIGHT_OUT / ArmWrist.ARM_DIGITAL_RANGE);
+  }
+}
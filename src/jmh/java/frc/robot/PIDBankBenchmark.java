@@ -0,0 +1,77 @@
+package frc.robot;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Updating n controllers once: n separate MiniPIDs against one PIDBank of size n.
+ * Both use the arm gains with max I output, output limits and ramp rate turned on,
+ * which is how the robot's PIDs are set up.
+ * Run with: gradlew jmh
+ */
+@State(Scope.Thread)
+public class PIDBankBenchmark {
+  @Param({"2", "4", "8", "16"})
+  int n;
+
+  //Pot readings are replayed from a table so the JIT can not fold the calculation away
+  static final int SAMPLES = 1024; //power of 2 so we can mask instead of mod
+  double[][] actualTable;
+  double[] actuals;
+  double[] setpoints;
+  double[] outputs;
+  int index = 0;
+  MiniPID[] pids;
+  PIDBank bank;
+
+  @Setup
+  public void setup()
+  {
+    pids = new MiniPID[n];
+    bank = new PIDBank(n);
+    for(int k = 0; k < n; k++)
+    {
+      pids[k] = new MiniPID(ArmWrist.P_ARM, ArmWrist.I_ARM, ArmWrist.D_ARM);
+      pids[k].setOutputLimits(1.0);
+      pids[k].setMaxIOutput(ArmWrist.MAX_I_ARM);
+      pids[k].setOutputRampRate(0.05);
+      bank.setPID(k, ArmWrist.P_ARM, ArmWrist.I_ARM, ArmWrist.D_ARM);
+      bank.setOutputLimits(k, -1.0, 1.0);
+      bank.setMaxIOutput(k, ArmWrist.MAX_I_ARM);
+      bank.setOutputRampRate(k, 0.05);
+    }
+    //noisy joints slowly moving from full down toward straight out, in the [-1.0 to 1.0] pot units
+    java.util.Random rand = new java.util.Random(6423);
+    actualTable = new double[SAMPLES][n];
+    for(int i = 0; i < SAMPLES; i++)
+    {
+      for(int k = 0; k < n; k++)
+      {
+        actualTable[i][k] = -0.86 + 0.42 * i / SAMPLES + 0.005 * rand.nextGaussian();
+      }
+    }
+    setpoints = new double[n];
+    java.util.Arrays.fill(setpoints, ArmWrist.ARM_POT_STRAIGHT_OUT / ArmWrist.ARM_DIGITAL_RANGE);
+    outputs = new double[n];
+  }
+
+  @Benchmark
+  public double[] miniPIDs()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    actuals = actualTable[index];
+    for(int k = 0; k < n; k++)
+    {
+      outputs[k] = pids[k].getOutput(actuals[k], setpoints[k]);
+    }
+    return outputs;
+  }
+
+  @Benchmark
+  public double[] pidBank()
+  {
+    index = (index + 1) & (SAMPLES - 1);
+    actuals = actualTable[index];
+    bank.update(actuals, setpoints, outputs);
+    return outputs;
+  }
+}
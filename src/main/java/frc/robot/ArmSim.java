@@ -0,0 +1,333 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Desktop simulator for the arm and wrist. No robot, no WPILib natives, just plain Java.
+ *
+ * The real control code (ArmWristControl: MiniPID plus the A cos(theta) + M feed forward) runs
+ * every control period against a physics model of the two joints: motor torque/speed/current
+ * curves, gravity torque, friction, hard stops and pot noise. It runs as fast as the CPU allows.
+ *
+ * For every pose to pose transition (ARM_POSE_0 to ARM_POSE_3) it prints settle time, overshoot
+ * and peak current for each joint, and can write the trajectories to CSV.
+ *   gradlew simulateArm                                  print the table
+ *   gradlew simulateArm -PsimArgs="--trace build/sim"    also write build/sim/pose_0_to_1.csv ...
+ *   gradlew simulateArm -PsimArgs="--talon"              arm position loop on a simulated Talon (ArmWrist.ARM_PID_ON_TALON)
+ *
+ * The model is tied to the feed forward calibration: holding a joint straight out takes drive C
+ * and just breaking friction takes drive M, which is what the @@@ constants in ArmWrist describe.
+ * The motor and inertia numbers below are estimates, adjust them when better numbers are known.
+ */
+public class ArmSim {
+  //----- poses, in pot counts --------------------------------------------------------------------
+  static final double[] ARM_POSES   = ArmWrist.ARM_POSES;
+  static final double[] WRIST_POSES = ArmWrist.WRIST_POSES;
+
+  //----- model estimates ---------------------------------------------------------------------------
+  static final double PHYSICS_STEP        = 0.0005; //seconds
+  static final double CONTROL_PERIOD      = ArmWrist.PID_PERIOD; //rate of the PID thread on the robot
+  static final double TRANSITION_TIME     = 4.0;    //seconds simulated per pose change
+  static final double SETTLE_BAND         = 15;     //pot counts, "settled" when error stays inside this
+  static final double POT_NOISE_COUNTS    = 2.0;    //one sigma of pot noise
+
+  //arm: two motors on Talons through a big reduction
+  static final double ARM_STALL_TORQUE    = 150;    //N*m at the joint at 12V, both motors
+  static final double ARM_FREE_SPEED      = 3.0;    //rad/s at the joint at 12V
+  static final double ARM_STALL_CURRENT   = 2 * 134;//A, both motors
+  static final double ARM_INERTIA         = 2.5;    //kg*m^2 with the wrist and hand
+  static final double ARM_DAMPING         = 2.0;    //N*m per rad/s
+  static final double WRIST_SHARE_OF_ARM_GRAVITY = 0.25; //part of the arm's gravity torque that comes from the wrist
+  //wrist: one motor on a Spark
+  static final double WRIST_STALL_TORQUE  = 40;
+  static final double WRIST_FREE_SPEED    = 6.0;
+  static final double WRIST_STALL_CURRENT = 53;
+  static final double WRIST_INERTIA       = 0.2;
+  static final double WRIST_DAMPING       = 0.3;
+
+  /** Per joint results of one transition. */
+  static class Metrics {
+    double settleTime  = 0;           //seconds, NaN if it never settled
+    double overshoot   = 0;           //pot counts past the target
+    double peakCurrent = 0;           //amps
+    double finalError  = 0;           //pot counts at the end
+    double iAbsErrorTime = 0;         //integral of |error| dt, in count*seconds. Big when the I term winds up and overshoots
+    double peakITerm   = 0;           //largest I term output seen, windup shows up here
+  }
+
+  /** One joint: state in radians relative to straight out. */
+  static class Joint {
+    final double stallTorque, freeSpeed, stallCurrent, inertia, damping;
+    final double frictionTorque, gravityTorque;  //from the M and C calibration
+    final double minAngle, maxAngle;             //hard stops, radians
+    double angle = 0, velocity = 0, current = 0;
+
+    Joint(double stallTorque, double freeSpeed, double stallCurrent, double inertia, double damping,
+          double driveM, double driveC, double angleFullUp, double angleFullDown)
+    {
+      this.stallTorque = stallTorque;
+      this.freeSpeed = freeSpeed;
+      this.stallCurrent = stallCurrent;
+      this.inertia = inertia;
+      this.damping = damping;
+      this.frictionTorque = driveM * stallTorque;          //M just breaks friction
+      this.gravityTorque = (driveC - driveM) * stallTorque; //A = C - M holds it straight out
+      this.minAngle = -Math.toRadians(angleFullDown);
+      this.maxAngle =  Math.toRadians(angleFullUp);
+    }
+
+    /**
+     * Advance by dt with the speed controller at drive [-1 to 1].
+     * @param gravityAngle angle of the joint relative to gravity, radians
+     * @param gravityScale part of gravityTorque acting at gravityAngle
+     * @param loadTorque any other torque on the joint, N*m
+     */
+    void step(double drive, double gravityAngle, double gravityScale, double loadTorque, double dt)
+    {
+      drive = Math.max(-1, Math.min(1, drive));
+      double motor = stallTorque * (drive - velocity / freeSpeed);
+      current = Math.abs(stallCurrent * (drive - velocity / freeSpeed));
+      double torque = motor - gravityTorque * gravityScale * Math.cos(gravityAngle) + loadTorque - damping * velocity;
+      if(velocity == 0 && Math.abs(torque) <= frictionTorque)
+      {
+        return; //stiction holds it
+      }
+      torque -= frictionTorque * Math.signum(velocity != 0 ? velocity : torque);
+      double newVelocity = velocity + torque / inertia * dt;
+      if(velocity != 0 && Math.signum(newVelocity) != Math.signum(velocity))
+      {
+        newVelocity = 0; //friction stopped it this step
+      }
+      velocity = newVelocity;
+      angle += velocity * dt;
+      if(angle > maxAngle || angle < minAngle)
+      {
+        angle = Math.max(minAngle, Math.min(maxAngle, angle));
+        velocity = 0; //hit the hard stop
+      }
+    }
+  }
+
+  final Random noise;
+  final Joint arm = new Joint(ARM_STALL_TORQUE, ARM_FREE_SPEED, ARM_STALL_CURRENT, ARM_INERTIA, ARM_DAMPING,
+                              ArmWrist.ARM_DRIVE_M, ArmWrist.ARM_DRIVE_C,
+                              ArmWrist.ARM_ANGLE_FULL_UP, ArmWrist.ARM_ANGLE_FULL_DOWN);
+  final Joint wrist = new Joint(WRIST_STALL_TORQUE, WRIST_FREE_SPEED, WRIST_STALL_CURRENT, WRIST_INERTIA, WRIST_DAMPING,
+                                ArmWrist.WRIST_DRIVE_M, ArmWrist.WRIST_DRIVE_C,
+                                ArmWrist.WRIST_ANGLE_FULL_UP, ArmWrist.WRIST_ANGLE_FULL_DOWN);
+  final Metrics armMetrics = new Metrics();
+  final Metrics wristMetrics = new Metrics();
+  TalonPositionLoop armTalon = null;  //stands in for the arm Talon when set, see runTransition
+
+  public ArmSim(long seed)
+  {
+    noise = new Random(seed);
+  }
+
+  //----- pot counts <-> joint angle, the inverse of ArmWrist.calculateJointAngle -----------------
+  static double armPotToAngle(double pot)
+  {
+    return Math.toRadians(ArmWrist.calculateJointAngle(pot / ArmWrist.ARM_DIGITAL_RANGE, ArmWrist.ARM_DIGITAL_RANGE,
+                                                       ArmWrist.ARM_ANGLE_FULL_UP, ArmWrist.ARM_ANGLE_FULL_DOWN,
+                                                       ArmWrist.ARM_POT_FULL_UP, ArmWrist.ARM_POT_FULL_DOWN,
+                                                       ArmWrist.ARM_POT_STRAIGHT_OUT));
+  }
+  static double wristPotToAngle(double pot)
+  {
+    return Math.toRadians(ArmWrist.calculateJointAngle(pot / ArmWrist.WRIST_DIGITAL_RANGE, ArmWrist.WRIST_DIGITAL_RANGE,
+                                                       ArmWrist.WRIST_ANGLE_FULL_UP, ArmWrist.WRIST_ANGLE_FULL_DOWN,
+                                                       ArmWrist.WRIST_POT_FULL_UP, ArmWrist.WRIST_POT_FULL_DOWN,
+                                                       ArmWrist.WRIST_POT_STRAIGHT_OUT));
+  }
+  static double angleToPot(double angle, double angleFullUp, double angleFullDown,
+                           double potFullUp, double potFullDown, double potStraightOut)
+  {
+    double degrees = Math.toDegrees(angle);
+    if(degrees > 0)
+    {
+      return potStraightOut + degrees / angleFullUp * (potFullUp - potStraightOut);
+    }
+    return potStraightOut + degrees / angleFullDown * (potStraightOut - potFullDown);
+  }
+  double armPot()
+  {
+    return angleToPot(arm.angle, ArmWrist.ARM_ANGLE_FULL_UP, ArmWrist.ARM_ANGLE_FULL_DOWN,
+                      ArmWrist.ARM_POT_FULL_UP, ArmWrist.ARM_POT_FULL_DOWN, ArmWrist.ARM_POT_STRAIGHT_OUT);
+  }
+  double wristPot()
+  {
+    return angleToPot(wrist.angle, ArmWrist.WRIST_ANGLE_FULL_UP, ArmWrist.WRIST_ANGLE_FULL_DOWN,
+                      ArmWrist.WRIST_POT_FULL_UP, ArmWrist.WRIST_POT_FULL_DOWN, ArmWrist.WRIST_POT_STRAIGHT_OUT);
+  }
+
+  /** Put both joints at rest at the given pot counts. */
+  void place(double armPotCounts, double wristPotCounts)
+  {
+    arm.angle = armPotToAngle(armPotCounts);
+    wrist.angle = wristPotToAngle(wristPotCounts);
+    arm.velocity = 0;
+    wrist.velocity = 0;
+  }
+
+  /**
+   * Start at rest at one pose, command another and simulate.
+   * Results are left in armMetrics and wristMetrics.
+   * @param control the controller to run, it is reset first
+   * @param period control period in seconds
+   * @param trace if not null, one CSV row per control period is written to it
+   */
+  void runTransition(ArmWristControl control, int fromPose, int toPose, double period, PrintWriter trace)
+  {
+    place(ARM_POSES[fromPose], WRIST_POSES[fromPose]);
+    control.reset();
+    control.startProfiles(ARM_POSES[fromPose], WRIST_POSES[fromPose]); //at rest at a pose, like after the last pose change
+    control.armOnTalon = armTalon != null;
+    if(armTalon != null)
+    {
+      armTalon.reset();
+    }
+    int stepsPerTalon = (int)Math.round(TalonPositionLoop.TALON_PERIOD / PHYSICS_STEP);
+    double armTarget = ARM_POSES[toPose];
+    double wristTarget = WRIST_POSES[toPose];
+    reset(armMetrics);
+    reset(wristMetrics);
+    double armStart = armPot();
+    double wristStart = wristPot();
+    if(trace != null)
+    {
+      trace.println("time,armPot,armSetpoint,armTarget,armDrive,armCurrent,wristPot,wristSetpoint,wristTarget,wristDrive,wristCurrent");
+    }
+    int stepsPerControl = Math.max(1, (int)Math.round(period / PHYSICS_STEP));
+    double controlDt = stepsPerControl * PHYSICS_STEP;
+    double time = 0;
+    while(time < TRANSITION_TIME)
+    {
+      //what the roboRIO sees: pots mapped to [-1.0 to 1.0] with noise
+      double armReading   = (armPot()   + noise.nextGaussian() * POT_NOISE_COUNTS) / ArmWrist.ARM_DIGITAL_RANGE;
+      double wristReading = (wristPot() + noise.nextGaussian() * POT_NOISE_COUNTS) / ArmWrist.WRIST_DIGITAL_RANGE;
+      control.update(armReading, wristReading, armTarget, wristTarget, controlDt);
+      double armDrive = control.armFinalDrive;
+      double wristDrive = control.wristFinalDrive;
+      armMetrics.peakITerm   = Math.max(armMetrics.peakITerm,   Math.abs(control.pidArm.getIOutput()));
+      wristMetrics.peakITerm = Math.max(wristMetrics.peakITerm, Math.abs(control.pidWrist.getIOutput()));
+      for(int i = 0; i < stepsPerControl; i++)
+      {
+        if(armTalon != null && i % stepsPerTalon == 0)
+        {
+          //the Talon reads the pot on its own 10 bit input and holds its output for a Talon period
+          int sensor = (int)Math.round(TalonPositionLoop.toSensorUnits(armPot() + noise.nextGaussian() * POT_NOISE_COUNTS));
+          armDrive = armTalon.step(sensor, TalonPositionLoop.toSensorUnits(control.armSetpoint), control.armTalonFeedForward);
+        }
+        //the wrist's weight hangs off the end of the arm, so part of the arm's load follows the wrist angle
+        double wristLoadOnArm = -WRIST_SHARE_OF_ARM_GRAVITY * arm.gravityTorque * Math.cos(arm.angle + wrist.angle);
+        arm.step(armDrive, arm.angle, 1.0 - WRIST_SHARE_OF_ARM_GRAVITY, wristLoadOnArm, PHYSICS_STEP);
+        wrist.step(wristDrive, arm.angle + wrist.angle, 1.0, 0, PHYSICS_STEP);
+        track(armMetrics,   armPot(),   armStart,   armTarget,   arm.current,   time + (i + 1) * PHYSICS_STEP);
+        track(wristMetrics, wristPot(), wristStart, wristTarget, wrist.current, time + (i + 1) * PHYSICS_STEP);
+      }
+      time += stepsPerControl * PHYSICS_STEP;
+      if(trace != null)
+      {
+        trace.printf("%.3f,%.1f,%.1f,%.0f,%.3f,%.1f,%.1f,%.1f,%.0f,%.3f,%.1f\n", time,
+                     armPot(), control.armSetpoint, armTarget, armDrive, arm.current,
+                     wristPot(), control.wristSetpoint, wristTarget, wristDrive, wrist.current);
+      }
+    }
+    armMetrics.finalError = armTarget - armPot();
+    wristMetrics.finalError = wristTarget - wristPot();
+  }
+
+  private static void reset(Metrics m)
+  {
+    m.settleTime = 0;
+    m.overshoot = 0;
+    m.peakCurrent = 0;
+    m.finalError = 0;
+    m.iAbsErrorTime = 0;
+    m.peakITerm = 0;
+  }
+
+  /** Update metrics after one physics step. settleTime holds the last time the joint was outside the band. */
+  private static void track(Metrics m, double pot, double start, double target, double current, double time)
+  {
+    double error = target - pot;
+    if(Math.abs(error) > SETTLE_BAND)
+    {
+      m.settleTime = time;
+    }
+    double past = (target - start) >= 0 ? pot - target : target - pot; //positive once we went past the target
+    m.overshoot = Math.max(m.overshoot, past);
+    m.peakCurrent = Math.max(m.peakCurrent, current);
+    m.iAbsErrorTime += Math.abs(error) * PHYSICS_STEP;
+    if(time >= TRANSITION_TIME - PHYSICS_STEP / 2 && Math.abs(error) > SETTLE_BAND)
+    {
+      m.settleTime = Double.NaN; //still outside the band at the end
+    }
+  }
+
+  public static void main(String... args) throws IOException
+  {
+    File traceDir = null;
+    double period = CONTROL_PERIOD;
+    boolean talon = false;
+    for(int i = 0; i < args.length; i++)
+    {
+      if(args[i].equals("--trace") && i + 1 < args.length)
+      {
+        traceDir = new File(args[++i]);
+        traceDir.mkdirs();
+      }
+      else if(args[i].equals("--period") && i + 1 < args.length)
+      {
+        period = Double.parseDouble(args[++i]);
+      }
+      else if(args[i].equals("--talon"))
+      {
+        talon = true;
+      }
+    }
+    ArmSim sim = new ArmSim(6423);
+    if(talon)
+    {
+      sim.armTalon = new TalonPositionLoop();
+    }
+    ArmWristControl control = new ArmWristControl();
+    long startNanos = System.nanoTime();
+    System.out.printf("control period %.1f mS, %.1f sec per transition%s\n", period * 1000, TRANSITION_TIME,
+                      talon ? ", arm loop on the Talon" : "");
+    System.out.println("pose   | arm settle  overshoot  peak A  final err | wrist settle  overshoot  peak A  final err");
+    for(int from = 0; from < ARM_POSES.length; from++)
+    {
+      for(int to = 0; to < ARM_POSES.length; to++)
+      {
+        if(from == to)
+        {
+          continue;
+        }
+        PrintWriter trace = traceDir == null ? null
+                          : new PrintWriter(new File(traceDir, "pose_" + from + "_to_" + to + ".csv"));
+        sim.runTransition(control, from, to, period, trace);
+        if(trace != null)
+        {
+          trace.close();
+        }
+        System.out.printf("%d -> %d | %s %9.0f %7.1f %10.0f | %s %12.0f %7.1f %10.0f\n", from, to,
+                          settleText(sim.armMetrics.settleTime), sim.armMetrics.overshoot,
+                          sim.armMetrics.peakCurrent, sim.armMetrics.finalError,
+                          settleText(sim.wristMetrics.settleTime), sim.wristMetrics.overshoot,
+                          sim.wristMetrics.peakCurrent, sim.wristMetrics.finalError);
+      }
+    }
+    double seconds = (System.nanoTime() - startNanos) / 1.0e9;
+    double simulated = ARM_POSES.length * (ARM_POSES.length - 1) * TRANSITION_TIME;
+    System.out.printf("simulated %.0f sec in %.2f sec (%.0fx real time)\n", simulated, seconds, simulated / seconds);
+  }
+
+  private static String settleText(double settleTime)
+  {
+    return Double.isNaN(settleTime) ? "   never" : String.format("%7.2fs", settleTime);
+  }
+}
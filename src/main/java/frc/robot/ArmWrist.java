@@ -1,12 +1,17 @@
 package frc.robot;
 
 //import static org.junit.Assume.assumeTrue;
+import com.ctre.phoenix.motorcontrol.ControlMode;
+import com.ctre.phoenix.motorcontrol.DemandType;
+import com.ctre.phoenix.motorcontrol.FeedbackDevice;
+import com.ctre.phoenix.motorcontrol.InvertType;
 import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 import com.ctre.phoenix.motorcontrol.can.WPI_VictorSPX;
 import edu.wpi.first.wpilibj.Spark;
 //import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 import frc.robot.Robot.OurBots;
 import edu.wpi.first.wpilibj.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * All of the control for the arm and wrist are in this class.
@@ -16,11 +21,11 @@ public class ArmWrist {
   //So to speed this up,  we will change target by the following respective factors every 20mS.
   //Changing these values only changes the rate the targets change not the PID response so don't make the 
   // target change too fast compared to the PID response or the lag the driver sees will make it hard for him to control. 
-  final int FAST_MOTION_FACTOR_ARM    = 5;     // 20 sec / 5 = 4 seconds
-  final int FAST_MOTION_FACTOR_WRIST  = 14;     //increase to make faster
+  static final int FAST_MOTION_FACTOR_ARM    = 5;     // 20 sec / 5 = 4 seconds
+  static final int FAST_MOTION_FACTOR_WRIST  = 14;     //increase to make faster
   //define the range of digital counts of the pots
-  final double ARM_DIGITAL_RANGE   = 1000.0; //range is -1000 to +1000
-  final double WRIST_DIGITAL_RANGE = 1000.0;
+  static final double ARM_DIGITAL_RANGE   = 1000.0; //range is -1000 to +1000
+  static final double WRIST_DIGITAL_RANGE = 1000.0;
 
   //final double WRIST_MOVE_FACTOR = 0.7;
   
@@ -29,19 +34,19 @@ public class ArmWrist {
   //*************************************************************************************************************************
   //----- target limits so we dont over rotate ---------------------------
   //These are in units of analog to digital counts returned from the pot sensor
-  final double ARM_POT_FULL_UP       =  30;   //@@@ - record from print output
-  final double ARM_POT_FULL_DOWN     = -860;  //@@@ 
-  final double ARM_POT_STRAIGHT_OUT  = -440;  //@@@ 
-  final double ARM_POT_INITIAL       = ARM_POT_FULL_DOWN;     //@@@
-  final double ARM_SAFETY_DOWN       = -1.1;  //@@@ - below this is considered a severed pot wire
-  final double ARM_SAFETY_UP         =  1.1;  //@@@ - above this is considered a severed pot wire
+  static final double ARM_POT_FULL_UP       =  30;   //@@@ - record from print output
+  static final double ARM_POT_FULL_DOWN     = -860;  //@@@ 
+  static final double ARM_POT_STRAIGHT_OUT  = -440;  //@@@ 
+  static final double ARM_POT_INITIAL       = ARM_POT_FULL_DOWN;     //@@@
+  static final double ARM_SAFETY_DOWN       = -1.1;  //@@@ - below this is considered a severed pot wire
+  static final double ARM_SAFETY_UP         =  1.1;  //@@@ - above this is considered a severed pot wire
 
-  final double WRIST_POT_FULL_UP     =   810;  //@@@ 
-  final double WRIST_POT_FULL_DOWN   =  -910;  //@@@ 
-  final double WRIST_POT_STRAIGHT_OUT=  -190;  //@@@
-  final double WRIST_POT_INITIAL     =  WRIST_POT_FULL_UP-50; //@@@
-  final double WRIST_SAFETY_DOWN     =  -1.01;  //@@@ - below this is considered a severed pot wire
-  final double WRIST_SAFETY_UP       =   1.01;  //@@@ - above this is considered a severed pot wire
+  static final double WRIST_POT_FULL_UP     =   810;  //@@@ 
+  static final double WRIST_POT_FULL_DOWN   =  -910;  //@@@ 
+  static final double WRIST_POT_STRAIGHT_OUT=  -190;  //@@@
+  static final double WRIST_POT_INITIAL     =  WRIST_POT_FULL_UP-50; //@@@
+  static final double WRIST_SAFETY_DOWN     =  -1.01;  //@@@ - below this is considered a severed pot wire
+  static final double WRIST_SAFETY_UP       =   1.01;  //@@@ - above this is considered a severed pot wire
 
   //The hand can point down to pick up a ball or straight up to place a disk.
   //The hand should never point further back than straight up to avoid tipping over backwards.
@@ -51,7 +56,7 @@ public class ArmWrist {
   //Add some margin past this point to allow for inaccuracys.
   //To determine value raise arm manually to about straight out and determine value that allows
   // the wrist target to point the hand a bit past straight up. Try again with arm all the way up
-  final double HAND_UNDER_EXTEND_LIMIT =  300;    
+  static final double HAND_UNDER_EXTEND_LIMIT =  300;    
 
 
   /*------- values needed to calculated the PID feed forward value to compensate for torque caused by the weight of the arm 
@@ -79,28 +84,52 @@ public class ArmWrist {
         when PidOut is negative to lower arm: F = PidOut - M + A cos(theta) 
    Note: M and A cos(theta) are feed forward terms in PID lingo.     
    */
-  final double ARM_ANGLE_FULL_UP    =  60; //@@@ degrees up from straight out  - measure with inclinometer
-  final double ARM_ANGLE_FULL_DOWN  =  50; //@@@ degrees down from straight out
-  final double ARM_DRIVE_M          = 0.07;//@@@ determine by trial and error so arm does not bounce around +/- pid out
-  final double ARM_DRIVE_C          = 0.22;//@@@ determine by trial and error so arm does not bounce around +/- pid out
-  final double WRIST_ANGLE_FULL_UP  =  135;//@@@ degrees up relative to arm    
-  final double WRIST_ANGLE_FULL_DOWN=   45;//@@@ degrees down relative to arm  
-  final double WRIST_DRIVE_M        = 0.10;//@@@ see comments above how to determine
-  final double WRIST_DRIVE_C        = 0.28;//@@@ see comments above how to determine
+  static final double ARM_ANGLE_FULL_UP    =  60; //@@@ degrees up from straight out  - measure with inclinometer
+  static final double ARM_ANGLE_FULL_DOWN  =  50; //@@@ degrees down from straight out
+  static final double ARM_DRIVE_M          = 0.07;//@@@ determine by trial and error so arm does not bounce around +/- pid out
+  static final double ARM_DRIVE_C          = 0.22;//@@@ determine by trial and error so arm does not bounce around +/- pid out
+  static final double WRIST_ANGLE_FULL_UP  =  135;//@@@ degrees up relative to arm    
+  static final double WRIST_ANGLE_FULL_DOWN=   45;//@@@ degrees down relative to arm  
+  static final double WRIST_DRIVE_M        = 0.10;//@@@ see comments above how to determine
+  static final double WRIST_DRIVE_C        = 0.28;//@@@ see comments above how to determine
+  //Pot counts and measured angles the feed forward tables are built from (see JointTable).
+  //The three points here give the same straight lines as calculateJointAngle. If the angle is off in between,
+  // measure more points with the inclinometer and add them in order of increasing pot counts.
+  static final double[] ARM_CALIBRATION_POTS     = {ARM_POT_FULL_DOWN,    ARM_POT_STRAIGHT_OUT,   ARM_POT_FULL_UP};
+  static final double[] ARM_CALIBRATION_ANGLES   = {-ARM_ANGLE_FULL_DOWN, 0,                      ARM_ANGLE_FULL_UP};
+  static final double[] WRIST_CALIBRATION_POTS   = {WRIST_POT_FULL_DOWN,    WRIST_POT_STRAIGHT_OUT, WRIST_POT_FULL_UP};
+  static final double[] WRIST_CALIBRATION_ANGLES = {-WRIST_ANGLE_FULL_DOWN, 0,                      WRIST_ANGLE_FULL_UP};
   
   //------- poses (There are only a handfull so an array would add more complication than the benifit.) --------
-  final double ARM_POSE_0       =  -450; //pick up ball from ground
-  final double WRIST_ARM_POSE_0 =  -625;
+  static final double ARM_POSE_0       =  -450; //pick up ball from ground
+  static final double WRIST_ARM_POSE_0 =  -625;
   //-----------------------------------------------------------------
-  final double ARM_POSE_1       = -805; //hatch level 1
-  final double WRIST_ARM_POSE_1 =  755;
+  static final double ARM_POSE_1       = -805; //hatch level 1
+  static final double WRIST_ARM_POSE_1 =  755;
   //----------------------------------------------------------------
-  final double ARM_POSE_2       = -425; //hatch level 2
-  final double WRIST_ARM_POSE_2 =  605;
+  static final double ARM_POSE_2       = -425; //hatch level 2
+  static final double WRIST_ARM_POSE_2 =  605;
   //-----------------------------------------------------------------
-  final double ARM_POSE_3       =  5;//hatch level 3
-  final double WRIST_ARM_POSE_3 =  210;  
+  static final double ARM_POSE_3       =  5;//hatch level 3
+  static final double WRIST_ARM_POSE_3 =  210;  
   //-----------------------------------------------------------------
+  //Same poses, by number, for the motion profiles and the simulator
+  static final double[] ARM_POSES   = {ARM_POSE_0, ARM_POSE_1, ARM_POSE_2, ARM_POSE_3};
+  static final double[] WRIST_POSES = {WRIST_ARM_POSE_0, WRIST_ARM_POSE_1, WRIST_ARM_POSE_2, WRIST_ARM_POSE_3};
+  //----- hand geometry for setHandTarget (see HandIK) --------------------
+  //With these measured, a new scoring height can be a hand height and pitch instead of a tuned pose pair.
+  static final double ARM_LENGTH       = 30;  //@@@ inches, arm pivot to wrist pivot - measure with a tape
+  static final double HAND_LENGTH      = 12;  //@@@ inches, wrist pivot to where the hatch or ball sits in the hand
+  static final double ARM_PIVOT_HEIGHT = 20;  //@@@ inches, floor to the arm pivot
+  //----- motion profiles ------------------------------------------------
+  //The PIDs do not chase a target that jumps. The target is turned into a smooth setpoint that speeds up,
+  // cruises and slows down within these limits (see ArmWristPlanner), so the motors do not saturate and wind up I.
+  //Start about half of what the motors can do and raise them while watching the overshoot in ArmSim.
+  static final double ARM_MAX_VELOCITY       =  700;  //@@@ pot counts per second
+  static final double ARM_MAX_ACCELERATION   = 2000;  //@@@ pot counts per second per second
+  static final double WRIST_MAX_VELOCITY     = 1600;  //@@@
+  static final double WRIST_MAX_ACCELERATION = 5000;  //@@@
+  static final double PROFILE_RESTART_GAP    = 0.1;   //seconds without a PID cycle (disabled) before the profiles restart from the pots
   private int poseSelection             = 1;    //initial pose
   final private int POSE_HIGHEST_DEFINED= 1;    //poses 0 to 3 are defined so far
   //----- When cycling poses, both buttons must be released for 1 sec before a subsequant pose change
@@ -120,6 +149,7 @@ public class ArmWrist {
   // 2nd Bot  
   WPI_TalonSRX    armLeft_2nd;	
   WPI_TalonSRX    armRight_2nd;
+  WPI_TalonSRX    armTalon;   //the Talon running the arm position loop, null unless ARM_PID_ON_TALON
   // general
   HardwareMap hMap;
   SpeedController armGroup;
@@ -129,8 +159,23 @@ public class ArmWrist {
 
   double armPositionCurrent      = 0;
   double armPositionTarget       = 0;
+  private final HandIK handIK    = new HandIK();  //hand height and pitch to pot targets, built once
   double wristPositionCurrent    = 0; 
   double wristPositionTarget     = 0;
+  double wristDrive              = 0;  //last upDownManualWrist output, recorded with the loop outputs
+  //----- hand off from the robot loop to the PID thread -----
+  private volatile long    sharedTargets  = 0;     //arm and wrist targets as two floats, see publishTargets()
+  private volatile boolean resetRequested = false; //the PID thread resets the PIDs, not the robot loop
+  private long lastPidNanos = 0;                    //runPids() only, the PID thread or MatchReplay
+  volatile double armPowerScale = 1.0;              //set by the PowerManager from the loop, applied by the PID thread
+  private double armTalonPeak   = 1.0;              //PID thread only, peak output last sent to the arm Talon
+  //----- broken pot reports. The PID thread counts and logs them, the robot loop tells the driver station -----
+  static final int ARM_POT   = 0;
+  static final int WRIST_POT = 1;
+  static final String[] POT_NAMES = {"Arm", "Wrist"};
+  private final boolean[] potFaulted = new boolean[2];                  //PID thread only, out of range last run
+  private final AtomicIntegerArray potFaults = new AtomicIntegerArray(2); //times each pot went out of range
+  private final int[] potFaultsReported = new int[2];                   //reportPotFaults() only
     
   
   //TODO: PID tuning
@@ -149,16 +194,36 @@ public class ArmWrist {
   // 3. full down pot value near -1.0, for arm and wrist
   // 4. full up pot value near +1.0 for arm and about 0 for the wrist
   // 5. when target position is more positive than current position, PID out is positive
-  MiniPID pidArm;
-  final double P_ARM = 0.85;
-  final double I_ARM = 0.01;
-  final double D_ARM = 0.0;
+  ArmWristControl control;  //all of the PID and feed forward math, hardware free so ArmSim can run it
+  MiniPID pidArm;           //these two belong to control
+  static final double P_ARM = 0.85;
+  static final double I_ARM = 0.01;
+  static final double D_ARM = 0.0;
+  static final double MAX_I_ARM  = 0.4;  //let P, M and C not I do most of the work to prevent violent movements
+  static final double RAMP_ARM   = 0;    //max output change per loop, 0 is off
+  static final double FILTER_ARM = 0;    //output filter strength [0 to 1), 0 is off
   MiniPID pidWrist;
-  final double P_WRIST = 3;
-  final double I_WRIST = 0.006;
-  final double D_WRIST = 0.0;
+  static final double P_WRIST = 3;
+  static final double I_WRIST = 0.006;
+  static final double D_WRIST = 0.0;
+  static final double MAX_I_WRIST  = 0.3;
+  static final double RAMP_WRIST   = 0;
+  static final double FILTER_WRIST = 0;
+  //Candidates for all of the above can be found in the simulator with PidTuner (gradlew tunePids)
+  //The PIDs run on their own real time thread (see Robot.robotInit and TaskScheduler).
+  //The gains above were tuned in the 20mS robot loop. The PIDs are time aware (MiniPID.setNominalPeriod)
+  // so the same gains hold at the faster PID_PERIOD and when the thread jitters.
+  static final double PID_TUNED_PERIOD = 0.020;
+  static final double PID_PERIOD       = 0.005; //200Hz
+  static final int    PID_PRIORITY     = 40;    //real time priority of the PID thread
+  //Bag and 2nd bots: run the arm position loop on the left arm Talon (CAN 4) at 1 kHz instead of pidArm here.
+  //The roboRIO still plans the setpoint and works out M + A cos(theta), and sends both every PID_PERIOD.
+  //Needs the arm pot moved to the Talon's analog input, powered from the Talon's 3.3V. See TalonPositionLoop
+  static final boolean ARM_PID_ON_TALON = false; //@@@
+  static final int     TALON_TIMEOUT_MS = 10;
+  static final double  TALON_PEAK_STEP  = 0.05;  //armPowerScale is rounded up to this before going to the Talon, so it is not reconfigured every PID run
   
-  int printCounter = 0; //used to reduce the print frequency
+  TelemetryLog telemetry = TelemetryLog.get(); //binary log, cheap enough to write every loop
   //-------------------------------------
   OurBots selectedBot_local; //copy so we can pass in one in constructor
   
@@ -166,16 +231,10 @@ public class ArmWrist {
   {
     hMap = new HardwareMap();
     selectedBot_local = selectedBot; //copy to be used by other methods of this class
-    //arm PID
-    pidArm = new MiniPID(P_ARM,I_ARM,D_ARM);
-    pidArm.setSetpoint(0.0);            //center of travel
-    pidArm.setMaxIOutput(0.4);    //let P, M and C not I do most of the work to prevent violent movements
-    //pidArm.setDirection(true);  //true is reversed
-    //wrist PID
-    pidWrist = new MiniPID(P_WRIST,I_WRIST,D_WRIST);
-    pidWrist.setSetpoint(0.0);    
-    pidWrist.setMaxIOutput(0.3);  //let P, M and C not I do most of the work to prevent violent movements   
-    //pidArm.setDirection(true);  //true is reversed
+    //PIDs are set up in ArmWristControl
+    control  = new ArmWristControl();
+    pidArm   = control.pidArm;
+    pidWrist = control.pidWrist;
     resetPids();                  //remove any I term build up from last time we used the PID
     // pots
     potArm   = new AnalogPotentiometer(hMap.potArm,   2 * ARM_DIGITAL_RANGE,   0); //channel, range, offset; [0 to 2000] will map to [-1.0 to +1.0] when read
@@ -199,7 +258,13 @@ public class ArmWrist {
         wrist.setInverted(true);        //invert so positive is up 
         armGroup = new SpeedControllerGroup(armLeft_2nd, armRight_2nd); 
         armGroup.set(0);
+        CanBusMonitor.get().addDefault("armLeft",  armLeft_2nd);
+        CanBusMonitor.get().addDefault("armRight", armRight_2nd);
         wrist.set(0);     
+        if(ARM_PID_ON_TALON)
+        {
+          configureArmTalon(armLeft_2nd, armRight_2nd);
+        }
         break;
       case WM2019_BAG:
       default:
@@ -211,9 +276,37 @@ public class ArmWrist {
         wrist.setInverted(true);        //invert so positive is up
         armGroup = new SpeedControllerGroup(armLeft_bag, armRight_bag); 
         armGroup.set(0);
+        CanBusMonitor.get().addDefault("armLeft",  armLeft_bag);
+        CanBusMonitor.get().addDefault("armRight", armRight_bag);
         wrist.set(0);
+        if(ARM_PID_ON_TALON)
+        {
+          configureArmTalon(armLeft_bag, armRight_bag);
+        }
         break;
     }
+    control.armOnTalon = armTalon != null;
+  }
+
+  /** Set up the leader Talon to run the arm position loop with our gains, and the other one to follow it. */
+  private void configureArmTalon(WPI_TalonSRX leader, WPI_TalonSRX follower)
+  {
+    leader.configSelectedFeedbackSensor(FeedbackDevice.Analog, 0, TALON_TIMEOUT_MS);
+    leader.setSensorPhase(false);  //@@@ reading must go up as the arm goes up, same as the roboRIO pot
+    leader.config_kP(0, TalonPositionLoop.kP(P_ARM), TALON_TIMEOUT_MS);
+    leader.config_kI(0, TalonPositionLoop.kI(I_ARM), TALON_TIMEOUT_MS);
+    leader.config_kD(0, TalonPositionLoop.kD(D_ARM), TALON_TIMEOUT_MS);
+    leader.config_kF(0, 0, TALON_TIMEOUT_MS);  //the feed forward is sent with every target instead
+    leader.configMaxIntegralAccumulator(0, TalonPositionLoop.maxIntegral(I_ARM, MAX_I_ARM), TALON_TIMEOUT_MS);
+    leader.selectProfileSlot(0, 0);
+    //the Talon stops the arm at the pot limits by itself
+    leader.configForwardSoftLimitThreshold((int)TalonPositionLoop.toSensorUnits(ARM_POT_FULL_UP),   TALON_TIMEOUT_MS);
+    leader.configReverseSoftLimitThreshold((int)TalonPositionLoop.toSensorUnits(ARM_POT_FULL_DOWN), TALON_TIMEOUT_MS);
+    leader.configForwardSoftLimitEnable(true, TALON_TIMEOUT_MS);
+    leader.configReverseSoftLimitEnable(true, TALON_TIMEOUT_MS);
+    follower.follow(leader);
+    follower.setInverted(InvertType.OpposeMaster);  //same as the setInverted(true) above, but relative to the leader
+    armTalon = leader;
   }
 
   public void upDownManualArmWrist(boolean up, boolean down)
@@ -266,31 +359,32 @@ public class ArmWrist {
     }
     */
     //Boggle
+    double drive;
     if(up)
     {
-      System.out.println("up");
-      wrist.set(0.35);
+      drive = 0.35;
     }
     else
     {
       if(down)
       {
-        System.out.println("down");
-        wrist.set(-0.5);
+        drive = -0.5;
       }
       else
       {
         if(holdBack)
         {
-          wrist.set(0.25);
+          drive = 0.25;
         }
         else
         {
-          System.out.println("no movement");
-          wrist.set(0);
+          drive = 0; //no movement
         }
       }
     }
+    wrist.set(drive);
+    wristDrive = drive;
+    telemetry.log(TelemetryLog.TYPE_WRIST_MANUAL, drive, up ? 1 : 0, down ? 1 : 0, holdBack ? 1 : 0);
   }
 
   public void upDownCycle(boolean up, boolean down)
@@ -359,68 +453,66 @@ public class ArmWrist {
     }
   }
   
+  /**
+   * Set the targets to put the hand at a height in inches with a pitch in degrees (0 is straight out,
+   * positive up). A table lookup, so fine to call every loop. Call publishTargets() after, like the other setters.
+   * @return false, leaving the targets alone, if the hand can not get there
+   */
+  public boolean setHandTarget(double heightInches, double pitchDegrees)
+  {
+    if(!handIK.lookup(heightInches, pitchDegrees))
+    {
+      return false;
+    }
+    armPositionTarget = handIK.armCounts;
+    wristPositionTarget = handIK.wristCounts;
+    return true;
+  }
+
+  /**
+   * @return true if processPIDsAndDriveMotors drives the arm motors, so armPowerScale does something.
+   * On the 2019 bots only the Talon path drives the arm today, the roboRIO path is commented out there
+   */
+  public boolean drivesArm()
+  {
+    return selectedBot_local == OurBots.PEANUT || armTalon != null;
+  }
+
+  /** Ask the PID thread to clear the I term build up before its next cycle. Safe to call from any thread. */
   public void resetPids()
   {
-    pidArm.reset();
-    pidWrist.reset();
+    resetRequested = true;
+  }
+
+  /**
+   * Hand armPositionTarget and wristPositionTarget to the PID thread. Call from the robot loop after
+   * changing either one. Both go in one volatile long so the PID thread always sees a matching pair.
+   */
+  public void publishTargets()
+  {
+    sharedTargets = ((long)Float.floatToRawIntBits((float)armPositionTarget) << 32)
+                  | (Float.floatToRawIntBits((float)wristPositionTarget) & 0xFFFFFFFFL);
   }
 
+  /** Runs on the PID thread every PID_PERIOD. Only uses the targets passed in with publishTargets(). */
   public void processPIDsAndDriveMotors()
   {
-    //----- Read the pots, cycle the PIDs and store the PID outputs  -----------------------------------------------------
-    armPositionCurrent   = potArm.get()/ARM_DIGITAL_RANGE     - 1.0;  //map [0 to 2.0] to [-1.0 to 1.0]
-    wristPositionCurrent = potWrist.get()/WRIST_DIGITAL_RANGE - 1.0; 
-    //For each PID cycle, pass in the current and target positions. 
-    //The needed drive to eliminate error is returned from the PID.
-    //Simple as that :)
-    double pidOutputArm   = pidArm.getOutput(armPositionCurrent, armPositionTarget/ARM_DIGITAL_RANGE); //output range is -1000 to +1000
-    double pidOutputWrist = pidWrist.getOutput(wristPositionCurrent, wristPositionTarget/WRIST_DIGITAL_RANGE);
-   
-    //The variable torque caused by the weight of the arm and wrist makes for bad PID behavior so we need to add
-    // a feed forward term which is an offset that is dependant of the angles of the joint.
-    // 1st determine the joint angles 
-    double armAngle   = calculateJointAngle(armPositionCurrent, 
-                                            ARM_DIGITAL_RANGE, 
-                                            ARM_ANGLE_FULL_UP, 
-                                            ARM_ANGLE_FULL_DOWN, 
-                                            ARM_POT_FULL_UP, 
-                                            ARM_POT_FULL_DOWN,
-                                            ARM_POT_STRAIGHT_OUT); 
-  double wristAngle   = calculateJointAngle(wristPositionCurrent, 
-                                            WRIST_DIGITAL_RANGE, 
-                                            WRIST_ANGLE_FULL_UP, 
-                                            WRIST_ANGLE_FULL_DOWN, 
-                                            WRIST_POT_FULL_UP, 
-                                            WRIST_POT_FULL_DOWN,
-                                            WRIST_POT_STRAIGHT_OUT);
-    double wristAngleRealtiveToGravity = wristAngle + armAngle;  
-    // 2nd - Now that we know the angles, the feed forward term is pretty simple as follows:
-    //       Consider the arm straight out at zero degrees: That would be full torque.
-    //       Then consider the arm straight up at 90 degrees: That would be zero torque.
-    //       This a cos function.     
-    
-    //C = A + M    See comments is top of this file to understand feed forward terms 
-    //A = C - M    (solved for A)
-    double arm_A   = ARM_DRIVE_C - ARM_DRIVE_M; 
-    double armACosTheta = arm_A * Math.cos(Math.toRadians(armAngle));
-    double wrist_A = WRIST_DRIVE_C - WRIST_DRIVE_M; 
-    double wristACosTheta = wrist_A * Math.cos(Math.toRadians(wristAngleRealtiveToGravity));
-    //----- Print the results ---------------------------------------------------------------------------------------------
-    if(printCounter%10 == 0)//print every 20*10 = 200mS
+    long targets = sharedTargets;  //one read, so arm and wrist targets are from the same loop
+    double armTarget   = Float.intBitsToFloat((int)(targets >>> 32));
+    double wristTarget = Float.intBitsToFloat((int)targets);
+    boolean reset = resetRequested;
+    if(reset)
     {
-      System.out.printf("C:T:P:A:F Arm %.2f : %.0f : %.3f : %.2f : %.3f  Wrist %.2f : %.0f : %.3f : %.2f : %.3f\n", 
-                                              armPositionCurrent,
-                                              armPositionTarget,
-                                              pidOutputArm,
-                                              armAngle,
-                                              armACosTheta,  
-                                              wristPositionCurrent,
-                                              wristPositionTarget,
-                                              pidOutputWrist,
-                                              wristAngle,
-                                              wristACosTheta);
-    }
-    printCounter++;
+      resetRequested = false;
+      if(armTalon != null)
+      {
+        armTalon.setIntegralAccumulator(0, 0, 0); //the arm I term lives on the Talon
+      }
+    }
+    //----- Read the pots, cycle the PIDs and store the PID outputs  -----------------------------------------------------
+    armPositionCurrent   = readArmPosition();
+    wristPositionCurrent = readWristPosition(); 
+    runPids(armPositionCurrent, wristPositionCurrent, armTarget, wristTarget, reset, System.nanoTime());
    
     //-------------------------------------------------------------------------
     //Now that we have the drive levels, drive the motors.
@@ -428,61 +520,119 @@ public class ArmWrist {
     switch(selectedBot_local)
     {
       case PEANUT:
-        setArmWithSafetyCheck(pidOutputArm, armPositionCurrent);
+        setArmWithSafetyCheck(control.pidOutputArm, armPositionCurrent);
         //Lowly peanut has no wrist
         break;
       case WM2019_BAG:
       case WM2019_2ND:
         //See comments at top of this file to understand feed forward terms
-        //When PidOut is positive to raise arm: F = PidOut + M + A cos(theta) 
-        //When PidOut is negative to lower arm: F = PidOut - M + A cos(theta) 
-        //---- determine final drive F for the arm ---------------------------
-        double armFinalDrive = 0; 
-        if(pidOutputArm > 0) 
-        {
-          armFinalDrive = pidOutputArm + ARM_DRIVE_M + armACosTheta;
-          //System.out.printf("ArmFinal+M %.2f %.2f, %.2f %.2f\n",armFinalDrive, pidOutputArm, ARM_DRIVE_M, armACosTheta);
-        }
-        else
-        {
-          armFinalDrive = pidOutputArm - ARM_DRIVE_M + armACosTheta;
-          //System.out.printf("ArmFinal-M %.2f %.2f, %.2f %.2f\n",armFinalDrive, pidOutputArm, ARM_DRIVE_M, armACosTheta);
-        }
-        //---- again for the wrist ----
-        double wristFinalDrive = 0; 
-        if(pidOutputWrist > 0)
-        {
-          wristFinalDrive = pidOutputWrist + WRIST_DRIVE_M + wristACosTheta;
-        }
-        else
+        //control.armFinalDrive and control.wristFinalDrive are F = PidOut +/- M + A cos(theta) 
+        //setArmWithSafetyCheck  (control.armFinalDrive,   armPositionCurrent);
+        //setWristWithSafetyCheck(control.wristFinalDrive, wristPositionCurrent);
+        if(armTalon != null)
         {
-          wristFinalDrive = pidOutputWrist - WRIST_DRIVE_M + wristACosTheta;
+          setArmTalonWithSafetyCheck(control.armSetpoint, control.armTalonFeedForward, armPositionCurrent);
         }
-        //setArmWithSafetyCheck  (armFinalDrive,   armPositionCurrent);
-        //setWristWithSafetyCheck(wristFinalDrive, wristPositionCurrent);
         break;
     }
   }
 
+  /**
+   * The hardware free part of a PID run: cycle the profiles, the PIDs and the feed forward (see
+   * ArmWristControl) and log it. MatchReplay calls it with the recorded values to check the results still match.
+   * @param reset clear the I terms first
+   * @param now System.nanoTime() of this run, dt is measured from the last run's
+   */
+  void runPids(double armPosition, double wristPosition, double armTarget, double wristTarget, boolean reset, long now)
+  {
+    if(reset)
+    {
+      control.reset();
+      telemetry.logAt(now, TelemetryLog.TYPE_PID_RESET);
+    }
+    double dt = lastPidNanos == 0 ? PID_PERIOD : (now - lastPidNanos) * 1.0e-9;
+    lastPidNanos = now;
+    if(dt > PROFILE_RESTART_GAP)
+    {
+      control.restartProfiles(); //the joints moved while we were not looking, start the setpoints where they are
+      dt = PID_PERIOD;
+    }
+    control.update(armPosition, wristPosition, armTarget, wristTarget, dt);
+    //----- Log the results every run. Decode the file with TelemetryDecoder (see build.gradle) -------------------------
+    telemetry.logAt(now, TelemetryLog.TYPE_ARM_WRIST,
+                    armPosition,
+                    control.armSetpoint,
+                    control.pidOutputArm,
+                    control.armAngle,
+                    control.armACosTheta,  
+                    wristPosition,
+                    control.wristSetpoint,
+                    control.pidOutputWrist,
+                    control.wristAngle,
+                    control.wristACosTheta,
+                    armTarget,
+                    wristTarget);
+  }
+
+  /** @return the arm pot now, mapped to [-1.0 to 1.0]. Any thread */
+  public double readArmPosition()
+  {
+    if(armTalon != null)
+    {
+      //the arm pot is on the Talon, its reading comes over CAN
+      return TalonPositionLoop.toPotCounts(armTalon.getSelectedSensorPosition(0))/ARM_DIGITAL_RANGE;
+    }
+    return potArm.get()/ARM_DIGITAL_RANGE - 1.0;  //map [0 to 2.0] to [-1.0 to 1.0]
+  }
+
+  /** @return the wrist pot now, mapped to [-1.0 to 1.0]. Any thread */
+  public double readWristPosition()
+  {
+    return potWrist.get()/WRIST_DIGITAL_RANGE - 1.0;
+  }
+
   /** This method checks to make sure the arm pot sensor wire is not broken then drives the motors */
   private void setArmWithSafetyCheck(double driveValue, double potValueSafetyCheckValue)
   {
-    if(potValueSafetyCheckValue < ARM_SAFETY_UP && potValueSafetyCheckValue > ARM_SAFETY_DOWN)
+    if(checkPot(ARM_POT, potValueSafetyCheckValue < ARM_SAFETY_UP && potValueSafetyCheckValue > ARM_SAFETY_DOWN,
+                potValueSafetyCheckValue))
     {
-      armGroup.set(driveValue); 
+      armGroup.set(driveValue * armPowerScale); 
       //System.out.printf("final arm drive is %.2f\n", driveValue);
     }
     else
     {
       armGroup.set(0);
-      System.out.println("*Error* Check for broken Arm pot or wire or excessive electrical noise");
+    }
+  }
+
+  /** Same check as setArmWithSafetyCheck, then sends the setpoint and feed forward to the arm Talon */
+  private void setArmTalonWithSafetyCheck(double setpointCounts, double feedForward, double potValueSafetyCheckValue)
+  {
+    if(checkPot(ARM_POT, potValueSafetyCheckValue < ARM_SAFETY_UP && potValueSafetyCheckValue > ARM_SAFETY_DOWN,
+                potValueSafetyCheckValue))
+    {
+      double peak = Math.min(1.0, Math.ceil(armPowerScale / TALON_PEAK_STEP) * TALON_PEAK_STEP);
+      if(peak != armTalonPeak)
+      {
+        armTalon.configPeakOutputForward(peak, 0);   //timeout 0, do not wait for the Talon to answer
+        armTalon.configPeakOutputReverse(-peak, 0);
+        armTalonPeak = peak;
+      }
+      armTalon.set(ControlMode.Position, TalonPositionLoop.toSensorUnits(setpointCounts),
+                   DemandType.ArbitraryFeedForward, feedForward);
+    }
+    else
+    {
+      armTalon.set(ControlMode.PercentOutput, 0);
     }
   }
 
   /** This method checks to makes sure the arm pot sensor wire is not broken then drives the motors */
   private void setWristWithSafetyCheck(double driveValue, double potValueSafetyCheckValue)
   {
-    if(potValueSafetyCheckValue > WRIST_SAFETY_DOWN && potValueSafetyCheckValue < WRIST_SAFETY_UP)
+    if(checkPot(WRIST_POT, potValueSafetyCheckValue > WRIST_SAFETY_DOWN && potValueSafetyCheckValue < WRIST_SAFETY_UP,
+                potValueSafetyCheckValue))
     {
      // System.out.printf("final wrist drive is %.2f\n", driveValue);
      wrist.set(driveValue); //negative drive rasies wrist so ***negate it here ONLY***
@@ -490,16 +640,83 @@ public class ArmWrist {
     else
     {
       wrist.set(0);
-      System.out.println("*Error* Check for broken Wrist pot or wire or excessive electrical noise");
     }
   }
 
+  /**
+   * PID thread. Count and log a pot going out of its safety range, once each time it goes out rather
+   * than every PID run, since printing from here at 200Hz held up the thread. reportPotFaults() tells the driver.
+   * @return inRange
+   */
+  private boolean checkPot(int pot, boolean inRange, double reading)
+  {
+    if(!inRange && !potFaulted[pot])
+    {
+      potFaults.incrementAndGet(pot);
+      telemetry.log(TelemetryLog.TYPE_POT_FAULT, pot, reading);
+    }
+    potFaulted[pot] = !inRange;
+    return inRange;
+  }
+
+  /**
+   * Send the driver station one error for each pot that went out of range since the last call.
+   * Run from the "potFaults" TaskScheduler task, so a noisy pot is reported at most once a period.
+   */
+  public void reportPotFaults()
+  {
+    for(int pot = 0; pot < potFaultsReported.length; pot++)
+    {
+      int faults = potFaults.get(pot);
+      if(faults != potFaultsReported[pot])
+      {
+        DriverStation.reportError("Check for broken " + POT_NAMES[pot] + " pot or wire or excessive electrical noise ("
+                                  + faults + " times so far)", false);
+        potFaultsReported[pot] = faults;
+      }
+    }
+  }
+
+  /** The A cos(theta) part of the feed forward. See comments at top of this file.
+   *  C = A + M so A = C - M. Static and hardware free so it can be benchmarked and simulated off robot.
+   */
+  static double gravityDrive(double driveM, double driveC, double angleDegrees)
+  {
+    return (driveC - driveM) * Math.cos(Math.toRadians(angleDegrees));
+  }
+
+  /** The final drive F. See comments at top of this file.
+   *  When PidOut is positive to raise joint: F = PidOut + M + A cos(theta) 
+   *  When PidOut is negative to lower joint: F = PidOut - M + A cos(theta) 
+   */
+  static double finalDrive(double pidOutput, double driveM, double aCosTheta)
+  {
+    if(pidOutput > 0)
+    {
+      return pidOutput + driveM + aCosTheta;
+    }
+    else
+    {
+      return pidOutput - driveM + aCosTheta;
+    }
+  }
+
+  /** The region the arm and wrist (pot counts) must stay in: the joint limits, and the hand never pointing
+   *  back past straight up. Static so ArmWristPlanner can build its ConstraintGrid from it.
+   */
+  static boolean isHandPositionAllowed(double armCounts, double wristCounts)
+  {
+    return armCounts   >= ARM_POT_FULL_DOWN   && armCounts   <= ARM_POT_FULL_UP
+        && wristCounts >= WRIST_POT_FULL_DOWN && wristCounts <= WRIST_POT_FULL_UP
+        && armCounts + wristCounts <= HAND_UNDER_EXTEND_LIMIT;
+  }
+
   /** This method calculates the angle in degrees of the joint with 0 being horizontal.
    *  It is simpaly the full angle times a ratio of pot values.
    *  Positive angle returned when joint is up   from straight out.
    *  Negative angle returned when joint is down from straight out
    */
-  private double calculateJointAngle( double potPosition, 
+  static double calculateJointAngle( double potPosition, 
                                       double potDigitalRange, 
                                       double angleFullUp, 
                                       double angleFullDown, 
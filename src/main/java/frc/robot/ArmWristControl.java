@@ -0,0 +1,140 @@
+package frc.robot;
+
+/**
+ * The PID and feed forward math that ArmWrist runs every loop, with no hardware attached.
+ * ArmWrist reads the pots, calls update() and drives the motors with the results.
+ * The simulator (ArmSim) calls the exact same update() against a physics model.
+ * See the comments at the top of ArmWrist for what the feed forward terms mean.
+ */
+public class ArmWristControl {
+  //pot to angle and A cos(theta), built once from the calibration constants in ArmWrist
+  static final JointTable ARM_TABLE   = new JointTable(ArmWrist.ARM_DIGITAL_RANGE,
+                                                       ArmWrist.ARM_CALIBRATION_POTS, ArmWrist.ARM_CALIBRATION_ANGLES,
+                                                       ArmWrist.ARM_DRIVE_M, ArmWrist.ARM_DRIVE_C);
+  static final JointTable WRIST_TABLE = new JointTable(ArmWrist.WRIST_DIGITAL_RANGE,
+                                                       ArmWrist.WRIST_CALIBRATION_POTS, ArmWrist.WRIST_CALIBRATION_ANGLES,
+                                                       ArmWrist.WRIST_DRIVE_M, ArmWrist.WRIST_DRIVE_C);
+  MiniPID pidArm;
+  MiniPID pidWrist;
+  ArmWristPlanner planner = new ArmWristPlanner(); //moves both setpoints without pointing the hand back too far
+
+  //----- results of the last update(), public so they can be logged and simulated ------
+  double armPositionCurrent   = 0; //[-1.0 to 1.0]
+  double wristPositionCurrent = 0;
+  double armSetpoint          = 0; //pot counts, where the planner says the arm should be now
+  double wristSetpoint        = 0;
+  double pidOutputArm         = 0;
+  double pidOutputWrist       = 0;
+  double armAngle             = 0; //degrees, 0 is straight out
+  double wristAngle           = 0; //degrees relative to the arm
+  double armACosTheta         = 0;
+  double wristACosTheta       = 0;
+  double armFinalDrive        = 0; //PID out + M + A cos(theta)
+  double wristFinalDrive      = 0;
+  //----- arm position loop on the Talon (ArmWrist.ARM_PID_ON_TALON) ------
+  boolean armOnTalon          = false; //set to skip pidArm, the Talon runs it as TalonPositionLoop
+  double armTalonFeedForward  = 0;     //M + A cos(theta), for the Talon's arbitrary feed forward
+
+  public ArmWristControl()
+  {
+    this(ArmWrist.P_ARM,   ArmWrist.I_ARM,   ArmWrist.D_ARM,   ArmWrist.MAX_I_ARM,   ArmWrist.RAMP_ARM,   ArmWrist.FILTER_ARM,
+         ArmWrist.P_WRIST, ArmWrist.I_WRIST, ArmWrist.D_WRIST, ArmWrist.MAX_I_WRIST, ArmWrist.RAMP_WRIST, ArmWrist.FILTER_WRIST);
+  }
+
+  /** Use other gains than the ArmWrist constants, e.g. when trying gains in the simulator (PidTuner). */
+  public ArmWristControl(double pArm,   double iArm,   double dArm,   double maxIArm,   double rampArm,   double filterArm,
+                         double pWrist, double iWrist, double dWrist, double maxIWrist, double rampWrist, double filterWrist)
+  {
+    //arm PID
+    pidArm = new MiniPID(pArm,iArm,dArm);
+    pidArm.setSetpoint(0.0);            //center of travel
+    pidArm.setMaxIOutput(maxIArm);      //let P, M and C not I do most of the work to prevent violent movements
+    pidArm.setOutputRampRate(rampArm);
+    pidArm.setOutputFilter(filterArm);
+    pidArm.setNominalPeriod(ArmWrist.PID_TUNED_PERIOD); //gains hold at any PID rate
+    //pidArm.setDirection(true);  //true is reversed
+    //wrist PID
+    pidWrist = new MiniPID(pWrist,iWrist,dWrist);
+    pidWrist.setSetpoint(0.0);
+    pidWrist.setMaxIOutput(maxIWrist);
+    pidWrist.setOutputRampRate(rampWrist);
+    pidWrist.setOutputFilter(filterWrist);
+    pidWrist.setNominalPeriod(ArmWrist.PID_TUNED_PERIOD);
+    reset();                      //remove any I term build up from last time we used the PID
+  }
+
+  /** Clear the I term build up. The motion profiles carry on. */
+  public void reset()
+  {
+    pidArm.reset();
+    pidWrist.reset();
+  }
+
+  /** Start the motion profiles at rest at these pot counts. Starting exactly at a pose lets a pose change use its cached profile. */
+  public void startProfiles(double armCounts, double wristCounts)
+  {
+    planner.start(armCounts, wristCounts);
+  }
+
+  /** Start the motion profiles from the pot readings on the next update(). */
+  public void restartProfiles()
+  {
+    planner.stop();
+  }
+
+  /**
+   * Run one cycle of the motion profiles, both PIDs and the feed forward.
+   * The targets are where the joints should end up. The PIDs track the profiled setpoints toward them.
+   * @param armPosition arm pot reading mapped to [-1.0 to 1.0]
+   * @param wristPosition wrist pot reading mapped to [-1.0 to 1.0]
+   * @param armTarget arm target in pot counts [-1000 to 1000]
+   * @param wristTarget wrist target in pot counts [-1000 to 1000]
+   * @param dt seconds since the last update
+   */
+  public void update(double armPosition, double wristPosition, double armTarget, double wristTarget, double dt)
+  {
+    armPositionCurrent   = armPosition;
+    wristPositionCurrent = wristPosition;
+    if(!planner.isStarted())
+    {
+      planner.start(armPosition * ArmWrist.ARM_DIGITAL_RANGE, wristPosition * ArmWrist.WRIST_DIGITAL_RANGE);
+    }
+    planner.step(armTarget, wristTarget, dt);
+    armSetpoint   = planner.armSetpoint;
+    wristSetpoint = planner.wristSetpoint;
+    //For each PID cycle, pass in the current and setpoint positions.
+    //The needed drive to eliminate error is returned from the PID.
+    //Simple as that :)
+    if(!armOnTalon)
+    {
+      pidOutputArm = pidArm.getOutput(armPositionCurrent, armSetpoint/ArmWrist.ARM_DIGITAL_RANGE, dt); //output range is -1000 to +1000
+    }
+    pidOutputWrist = pidWrist.getOutput(wristPositionCurrent, wristSetpoint/ArmWrist.WRIST_DIGITAL_RANGE, dt);
+
+    //The variable torque caused by the weight of the arm and wrist makes for bad PID behavior so we need to add
+    // a feed forward term which is an offset that is dependant of the angles of the joint.
+    // 1st determine the joint angles (same as ArmWrist.calculateJointAngle, but from a table)
+    armAngle   = ARM_TABLE.angle(armPositionCurrent);
+    wristAngle = WRIST_TABLE.angle(wristPositionCurrent);
+    double wristAngleRealtiveToGravity = wristAngle + armAngle;
+    // 2nd - Now that we know the angles, the feed forward term is pretty simple as follows:
+    //       Consider the arm straight out at zero degrees: That would be full torque.
+    //       Then consider the arm straight up at 90 degrees: That would be zero torque.
+    //       This a cos function. (ArmWrist.gravityDrive, from a table)
+    armACosTheta   = ARM_TABLE.gravity(armAngle);
+    wristACosTheta = WRIST_TABLE.gravity(wristAngleRealtiveToGravity);
+    //When PidOut is positive to raise arm: F = PidOut + M + A cos(theta)
+    //When PidOut is negative to lower arm: F = PidOut - M + A cos(theta)
+    armFinalDrive   = ArmWrist.finalDrive(pidOutputArm,   ArmWrist.ARM_DRIVE_M,   armACosTheta);
+    wristFinalDrive = ArmWrist.finalDrive(pidOutputWrist, ArmWrist.WRIST_DRIVE_M, wristACosTheta);
+    //The Talon adds its PID out to this itself. Its P term has the sign of the error, so M goes the same way.
+    if(armSetpoint > armPositionCurrent * ArmWrist.ARM_DIGITAL_RANGE)
+    {
+      armTalonFeedForward = ArmWrist.ARM_DRIVE_M + armACosTheta;
+    }
+    else
+    {
+      armTalonFeedForward = -ArmWrist.ARM_DRIVE_M + armACosTheta;
+    }
+  }
+}
@@ -0,0 +1,318 @@
+package frc.robot;
+
+/**
+ * Moves the arm and wrist setpoints together so the hand stays inside the allowed region the
+ * whole way, not just at the targets: the joint limits and HAND_UNDER_EXTEND_LIMIT (see ArmWrist).
+ *
+ * Each joint on its own takes the TrapezoidProfile time to reach its goal, and the move can not
+ * be faster than the slower joint. When the goals change, these ways to get there are tried:
+ *   INDEPENDENT   each joint follows its own fastest profile (the wrist usually gets there first)
+ *   SYNCHRONIZED  both joints on one straight line in joint space, arriving together
+ *   ARM_FIRST     the wrist holds while the arm moves, then the wrist moves
+ *   WRIST_FIRST   the arm holds while the wrist moves, then the arm moves
+ * Each one is sampled every CHECK_STEP against the ConstraintGrid (exact at the edges) and the
+ * fastest that stays inside wins, ties (within TIE) going to the one listed first. If none does,
+ * the straight line is taken with as much of the current velocity as it can keep. A straight line between two allowed points
+ * never leaves a convex region, so SYNCHRONIZED always works with today's limits. It usually
+ * takes about as long as the slower joint alone, and the hold plans are there in case the region
+ * stops being convex (e.g. a frame perimeter rule).
+ *
+ * Goals outside the region are moved to the nearest allowed point: joint limits first, then the
+ * wrist gives way to stay under HAND_UNDER_EXTEND_LIMIT. Not thread safe, it belongs to the PID thread.
+ */
+public class ArmWristPlanner {
+  static final int INDEPENDENT  = 0;
+  static final int SYNCHRONIZED = 1;
+  static final int ARM_FIRST    = 2;
+  static final int WRIST_FIRST  = 3;
+  static final String[] PLAN_NAMES = {"independent", "synchronized", "armFirst", "wristFirst"};
+  static final double GRID_CELL  = 5;     //pot counts
+  //seconds between feasibility samples, short enough that the setpoints can not skip over a whole cell
+  static final double CHECK_STEP = GRID_CELL / (ArmWrist.ARM_MAX_VELOCITY + ArmWrist.WRIST_MAX_VELOCITY);
+  static final double TIE        = 0.001; //seconds, plans closer than this count as the same length
+  //pot counts goals are kept inside the edges, so rounding in a move along an edge can not step over it
+  static final double EDGE_MARGIN = 1e-6;
+  static final int KEEP_SEARCH_STEPS = 10; //halvings when looking for how much velocity a fallback can keep
+
+  /** The allowed region, in pot counts, built once. */
+  static final ConstraintGrid GRID = new ConstraintGrid(-ArmWrist.ARM_DIGITAL_RANGE,   ArmWrist.ARM_DIGITAL_RANGE,
+                                                        -ArmWrist.WRIST_DIGITAL_RANGE, ArmWrist.WRIST_DIGITAL_RANGE,
+                                                        GRID_CELL, ArmWrist::isHandPositionAllowed);
+
+  /** One way to get both joints from where they are to their goals. */
+  static class Motion {
+    final int kind;
+    double duration;
+    //for the per joint plans: first profile from time 0, then (if not null) second profile from its delay
+    final TrapezoidProfile armHold, armMove, wristHold, wristMove;
+    TrapezoidProfile armFirst, armSecond, wristFirst, wristSecond;
+    double armDelay, wristDelay;
+    //for SYNCHRONIZED: progress from 0 to 1 along the line
+    final TrapezoidProfile progress = new TrapezoidProfile(1, 1);
+    double armFrom, armTo, wristFrom, wristTo;
+    //sample() results
+    double arm, wrist, armVelocity, wristVelocity;
+
+    Motion(int kind)
+    {
+      this.kind = kind;
+      armHold   = new TrapezoidProfile(ArmWrist.ARM_MAX_VELOCITY,   ArmWrist.ARM_MAX_ACCELERATION);
+      armMove   = new TrapezoidProfile(ArmWrist.ARM_MAX_VELOCITY,   ArmWrist.ARM_MAX_ACCELERATION);
+      wristHold = new TrapezoidProfile(ArmWrist.WRIST_MAX_VELOCITY, ArmWrist.WRIST_MAX_ACCELERATION);
+      wristMove = new TrapezoidProfile(ArmWrist.WRIST_MAX_VELOCITY, ArmWrist.WRIST_MAX_ACCELERATION);
+    }
+
+    void sample(double t)
+    {
+      if(kind == SYNCHRONIZED)
+      {
+        double s = t >= progress.duration() ? 1 : progress.position(t);
+        double sVelocity = progress.velocity(t);
+        arm = armFrom + (armTo - armFrom) * s;
+        wrist = wristFrom + (wristTo - wristFrom) * s;
+        armVelocity = (armTo - armFrom) * sVelocity;
+        wristVelocity = (wristTo - wristFrom) * sVelocity;
+        return;
+      }
+      TrapezoidProfile armNow = (armSecond != null && t >= armDelay) ? armSecond : armFirst;
+      double armT = armNow == armSecond ? t - armDelay : t;
+      arm = armNow.position(armT);
+      armVelocity = armNow.velocity(armT);
+      TrapezoidProfile wristNow = (wristSecond != null && t >= wristDelay) ? wristSecond : wristFirst;
+      double wristT = wristNow == wristSecond ? t - wristDelay : t;
+      wrist = wristNow.position(wristT);
+      wristVelocity = wristNow.velocity(wristT);
+    }
+
+    /** @return true if every CHECK_STEP sample and the end are inside the grid */
+    boolean staysInside(ConstraintGrid grid)
+    {
+      for(double t = CHECK_STEP; t < duration; t += CHECK_STEP)
+      {
+        sample(t);
+        if(!grid.allowed(arm, wrist))
+        {
+          return false;
+        }
+      }
+      sample(duration);
+      return grid.allowed(arm, wrist);
+    }
+  }
+
+  //rest to rest profiles between every pair of poses, planned once
+  static final TrapezoidProfile[][] ARM_POSE_PROFILES   = TrapezoidProfile.between(ArmWrist.ARM_POSES,
+                                                            ArmWrist.ARM_MAX_VELOCITY, ArmWrist.ARM_MAX_ACCELERATION);
+  static final TrapezoidProfile[][] WRIST_POSE_PROFILES = TrapezoidProfile.between(ArmWrist.WRIST_POSES,
+                                                            ArmWrist.WRIST_MAX_VELOCITY, ArmWrist.WRIST_MAX_ACCELERATION);
+
+  private final Motion[] motions = {new Motion(INDEPENDENT), new Motion(SYNCHRONIZED),
+                                    new Motion(ARM_FIRST), new Motion(WRIST_FIRST)};
+  private Motion active = null;
+  private double time = 0;
+  private boolean started = false;
+  private double armGoal = Double.NaN, wristGoal = Double.NaN;  //as asked for, before moving inside the region
+  private double armEnd = 0, wristEnd = 0;                      //where the active motion ends
+  //----- results of the last step() -----
+  double armSetpoint = 0, wristSetpoint = 0;      //pot counts
+  double armVelocity = 0, wristVelocity = 0;      //pot counts per second
+  //----- counts since start, for the dashboard or a log -----
+  final long[] plansUsed = new long[PLAN_NAMES.length];
+  long goalsMoved = 0;                            //goals that were outside the region
+
+  /** Start at rest at these pot counts. Starting exactly at a pose lets a pose change use its cached profiles. */
+  public void start(double armCounts, double wristCounts)
+  {
+    armSetpoint = armCounts;
+    wristSetpoint = wristCounts;
+    armVelocity = 0;
+    wristVelocity = 0;
+    armGoal = Double.NaN;
+    wristGoal = Double.NaN;
+    active = null;
+    started = true;
+  }
+
+  public boolean isStarted()
+  {
+    return started;
+  }
+
+  /** Make the caller start() again before the next step(), e.g. after the PIDs have not run for a while. */
+  public void stop()
+  {
+    started = false;
+  }
+
+  /**
+   * Advance the setpoints by dt toward the goals, replanning if the goals changed.
+   * Results are left in armSetpoint, wristSetpoint and the velocities.
+   */
+  public void step(double newArmGoal, double newWristGoal, double dt)
+  {
+    if(newArmGoal != armGoal || newWristGoal != wristGoal)
+    {
+      armGoal = newArmGoal;
+      wristGoal = newWristGoal;
+      replan();
+    }
+    time += dt;
+    if(time >= active.duration)
+    {
+      armSetpoint = armEnd;
+      wristSetpoint = wristEnd;
+      armVelocity = 0;
+      wristVelocity = 0;
+      return;
+    }
+    active.sample(time);
+    armSetpoint = active.arm;
+    wristSetpoint = active.wrist;
+    armVelocity = active.armVelocity;
+    wristVelocity = active.wristVelocity;
+  }
+
+  private void replan()
+  {
+    double armMin = ArmWrist.ARM_POT_FULL_DOWN + EDGE_MARGIN;
+    double wristMin = ArmWrist.WRIST_POT_FULL_DOWN + EDGE_MARGIN;
+    double handMax = ArmWrist.HAND_UNDER_EXTEND_LIMIT - EDGE_MARGIN;
+    double armTo = Math.max(armMin, Math.min(ArmWrist.ARM_POT_FULL_UP - EDGE_MARGIN, armGoal));
+    double wristTo = Math.max(wristMin, Math.min(ArmWrist.WRIST_POT_FULL_UP - EDGE_MARGIN, wristGoal));
+    wristTo = Math.max(wristMin, Math.min(wristTo, handMax - armTo));
+    armTo = Math.min(armTo, handMax - wristTo);
+    if(armTo != armGoal || wristTo != wristGoal)
+    {
+      goalsMoved++;
+    }
+    planIndependent(motions[INDEPENDENT], armTo, wristTo);
+    planSynchronized(motions[SYNCHRONIZED], armTo, wristTo, 1);
+    planSequenced(motions[ARM_FIRST], true, armTo, wristTo);
+    planSequenced(motions[WRIST_FIRST], false, armTo, wristTo);
+    Motion best = null;
+    if(GRID.allowed(armSetpoint, wristSetpoint))
+    {
+      double bestDuration = Double.POSITIVE_INFINITY;
+      for(Motion motion : motions)
+      {
+        if(motion.duration < bestDuration - TIE && motion.staysInside(GRID))
+        {
+          best = motion;
+          bestDuration = motion.duration;
+        }
+      }
+    }
+    if(best == null)
+    {
+      //Moving too fast to stop before an edge, or starting outside. Take the straight line keeping as
+      // much of the velocity along it as stays inside, found by halving. With none kept the line can
+      // only leave the region if the region is not convex.
+      best = motions[SYNCHRONIZED];
+      double keep = 0;
+      if(GRID.allowed(armSetpoint, wristSetpoint))
+      {
+        double step = 0.5;
+        for(int i = 0; i < KEEP_SEARCH_STEPS; i++, step *= 0.5)
+        {
+          planSynchronized(best, armTo, wristTo, keep + step);
+          if(best.staysInside(GRID))
+          {
+            keep += step;
+          }
+        }
+      }
+      planSynchronized(best, armTo, wristTo, keep);
+    }
+    plansUsed[best.kind]++;
+    active = best;
+    armEnd = armTo;
+    wristEnd = wristTo;
+    time = 0;
+  }
+
+  private void planIndependent(Motion m, double armTo, double wristTo)
+  {
+    m.armFirst = cachedOr(ARM_POSE_PROFILES, ArmWrist.ARM_POSES, armSetpoint, armVelocity, armTo, m.armMove);
+    m.wristFirst = cachedOr(WRIST_POSE_PROFILES, ArmWrist.WRIST_POSES, wristSetpoint, wristVelocity, wristTo, m.wristMove);
+    m.armSecond = null;
+    m.wristSecond = null;
+    m.duration = Math.max(m.armFirst.duration(), m.wristFirst.duration());
+  }
+
+  /** @param keep fraction of the current velocity along the line to start with, the rest is dropped */
+  private void planSynchronized(Motion m, double armTo, double wristTo, double keep)
+  {
+    m.armFrom = armSetpoint;
+    m.wristFrom = wristSetpoint;
+    m.armTo = armTo;
+    m.wristTo = wristTo;
+    double armDistance = Math.abs(armTo - armSetpoint);
+    double wristDistance = Math.abs(wristTo - wristSetpoint);
+    if(armDistance == 0 && wristDistance == 0)
+    {
+      m.progress.setLimits(1, 1).plan(1, 0, 1);
+      m.duration = 0;
+      return;
+    }
+    //progress limits so neither joint goes past its own limits. A joint that does not move sets no limit
+    double velocity = Math.min(ArmWrist.ARM_MAX_VELOCITY / armDistance, ArmWrist.WRIST_MAX_VELOCITY / wristDistance);
+    double acceleration = Math.min(ArmWrist.ARM_MAX_ACCELERATION / armDistance, ArmWrist.WRIST_MAX_ACCELERATION / wristDistance);
+    //keep the part of the current velocity that is along the line, the rest is dropped
+    double armDelta = armTo - armSetpoint;
+    double wristDelta = wristTo - wristSetpoint;
+    double startVelocity = keep * (armVelocity * armDelta + wristVelocity * wristDelta)
+                                  / (armDelta * armDelta + wristDelta * wristDelta);
+    m.progress.setLimits(velocity, acceleration).plan(0, startVelocity, 1);
+    m.duration = m.progress.duration();
+  }
+
+  /** One joint holds (slowing to a stop where it is) while the other moves, then the holding joint moves. */
+  private void planSequenced(Motion m, boolean armMovesFirst, double armTo, double wristTo)
+  {
+    if(armMovesFirst)
+    {
+      m.armFirst = m.armMove.plan(armSetpoint, armVelocity, armTo);
+      m.armSecond = null;
+      m.wristFirst = m.wristHold.plan(wristSetpoint, wristVelocity, wristSetpoint);
+      m.wristDelay = Math.max(m.armFirst.duration(), m.wristFirst.duration());
+      m.wristSecond = cachedOr(WRIST_POSE_PROFILES, ArmWrist.WRIST_POSES, wristSetpoint, 0, wristTo, m.wristMove);
+      m.duration = m.wristDelay + m.wristSecond.duration();
+    }
+    else
+    {
+      m.wristFirst = m.wristMove.plan(wristSetpoint, wristVelocity, wristTo);
+      m.wristSecond = null;
+      m.armFirst = m.armHold.plan(armSetpoint, armVelocity, armSetpoint);
+      m.armDelay = Math.max(m.wristFirst.duration(), m.armFirst.duration());
+      m.armSecond = cachedOr(ARM_POSE_PROFILES, ArmWrist.ARM_POSES, armSetpoint, 0, armTo, m.armMove);
+      m.duration = m.armDelay + m.armSecond.duration();
+    }
+  }
+
+  /** @return the cached profile for a move from rest at one pose to another, else scratch planned for this move */
+  private static TrapezoidProfile cachedOr(TrapezoidProfile[][] cache, double[] poses,
+                                           double from, double fromVelocity, double to, TrapezoidProfile scratch)
+  {
+    if(fromVelocity == 0)
+    {
+      int fromPose = -1;
+      int toPose = -1;
+      for(int i = 0; i < poses.length; i++)
+      {
+        if(poses[i] == from)
+        {
+          fromPose = i;
+        }
+        if(poses[i] == to)
+        {
+          toPose = i;
+        }
+      }
+      if(fromPose >= 0 && toPose >= 0)
+      {
+        return cache[fromPose][toPose];
+      }
+    }
+    return scratch.plan(from, fromVelocity, to);
+  }
+}
@@ -0,0 +1,128 @@
+package frc.robot;
+
+import com.ctre.phoenix.motorcontrol.StatusFrame;
+import com.ctre.phoenix.motorcontrol.StatusFrameEnhanced;
+import com.ctre.phoenix.motorcontrol.can.BaseMotorController;
+import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
+import edu.wpi.first.hal.can.CANStatus;
+import edu.wpi.first.wpilibj.RobotController;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Keeps the CAN bus quiet and shows how busy it is.
+ *
+ * The Phoenix controllers send their status frames whether or not we read them. Most of them are
+ * for sensors and closed loops the drive motors do not have, so slowDrive() stretches those to
+ * SLOW_PERIOD_MS. Each controller added here is counted at the frame rates it was left with, and
+ * publish() puts frames per second per device on the dashboard next to what the roboRIO measures
+ * for the whole bus (RobotController.getCANStatus()): load, dropped sends and bus off since the
+ * last publish, and the error counters.
+ * The per device numbers are worked out from the frame periods, the CAN API has no per device count.
+ * Run publish() from the "canBus" TaskScheduler task.
+ */
+public class CanBusMonitor {
+  static final int SLOW_PERIOD_MS    = 255;  //slowest a Phoenix status frame can go
+  static final int TIMEOUT_MS        = 10;
+  //Phoenix defaults, milliseconds
+  static final int CONTROL_PERIOD_MS = 10;   //Control_3_General, sent by the roboRIO to every controller
+  static final int GENERAL_PERIOD_MS = 10;   //Status_1_General: output, faults. Followers follow the leader's
+  static final int FEEDBACK_PERIOD_MS = 20;  //Status_2_Feedback0: sensor position and velocity, current
+  static final int SLOW_DEFAULT_MS   = 160;  //the rest (analog/temp/battery, closed loop and motion magic targets, ...)
+  static final int VICTOR_SLOW_FRAMES = 3;   //Status_4, 10 and 13
+  static final int TALON_SLOW_FRAMES  = 5;   //plus Status_3 quadrature and Status_8 pulse width
+  private static final int MAX_DEVICES = 16;
+
+  private static CanBusMonitor instance;
+
+  private final String[] keys = new String[MAX_DEVICES];  //built once so publishing does not concatenate
+  private final double[] framesPerSecond = new double[MAX_DEVICES];
+  private int deviceCount = 0;
+  private int lastTxFull = 0, lastBusOff = 0;
+
+  /** @return the robot wide monitor */
+  public static synchronized CanBusMonitor get()
+  {
+    if(instance == null)
+    {
+      instance = new CanBusMonitor();
+    }
+    return instance;
+  }
+
+  /**
+   * Stretch the status frames a drive motor does not need. A leader keeps Status_1 at its default
+   * since its followers follow it. Call once when the controller is set up.
+   */
+  public void slowDrive(String name, BaseMotorController controller, boolean leader)
+  {
+    int generalPeriod = leader ? GENERAL_PERIOD_MS : SLOW_PERIOD_MS;
+    boolean talon = controller instanceof WPI_TalonSRX;
+    if(talon)
+    {
+      WPI_TalonSRX t = (WPI_TalonSRX)controller;
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_1_General,     generalPeriod,  TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_2_Feedback0,   SLOW_PERIOD_MS, TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_3_Quadrature,  SLOW_PERIOD_MS, TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_4_AinTempVbat, SLOW_PERIOD_MS, TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_8_PulseWidth,  SLOW_PERIOD_MS, TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_10_MotionMagic, SLOW_PERIOD_MS, TIMEOUT_MS);
+      t.setStatusFramePeriod(StatusFrameEnhanced.Status_13_Base_PIDF0, SLOW_PERIOD_MS, TIMEOUT_MS);
+    }
+    else
+    {
+      controller.setStatusFramePeriod(StatusFrame.Status_1_General,     generalPeriod,  TIMEOUT_MS);
+      controller.setStatusFramePeriod(StatusFrame.Status_2_Feedback0,   SLOW_PERIOD_MS, TIMEOUT_MS);
+      controller.setStatusFramePeriod(StatusFrame.Status_4_AinTempVbat, SLOW_PERIOD_MS, TIMEOUT_MS);
+      controller.setStatusFramePeriod(StatusFrame.Status_10_MotionMagic, SLOW_PERIOD_MS, TIMEOUT_MS);
+      controller.setStatusFramePeriod(StatusFrame.Status_13_Base_PIDF0, SLOW_PERIOD_MS, TIMEOUT_MS);
+    }
+    add(name, framesPerSecond(generalPeriod, SLOW_PERIOD_MS, SLOW_PERIOD_MS, talon));
+  }
+
+  /** Count a controller left at the Phoenix default frame periods. */
+  public void addDefault(String name, BaseMotorController controller)
+  {
+    add(name, framesPerSecond(GENERAL_PERIOD_MS, FEEDBACK_PERIOD_MS, SLOW_DEFAULT_MS,
+                              controller instanceof WPI_TalonSRX));
+  }
+
+  /** @return control plus status frames per second for one controller with these status periods */
+  static double framesPerSecond(int generalPeriod, int feedbackPeriod, int slowPeriod, boolean talon)
+  {
+    int slowFrames = talon ? TALON_SLOW_FRAMES : VICTOR_SLOW_FRAMES;
+    return 1000.0 / CONTROL_PERIOD_MS + 1000.0 / generalPeriod + 1000.0 / feedbackPeriod
+           + slowFrames * 1000.0 / slowPeriod;
+  }
+
+  private synchronized void add(String name, double rate)
+  {
+    if(deviceCount == MAX_DEVICES)
+    {
+      System.out.println("*Error* CanBusMonitor is full, not counting " + name);
+      return;
+    }
+    keys[deviceCount] = "can/" + name + " frames/s";
+    framesPerSecond[deviceCount] = rate;
+    deviceCount++;
+  }
+
+  /** Publish the per device estimates, the measured bus load and the errors. */
+  public synchronized void publish()
+  {
+    double total = 0;
+    for(int i = 0; i < deviceCount; i++)
+    {
+      SmartDashboard.putNumber(keys[i], framesPerSecond[i]);
+      total += framesPerSecond[i];
+    }
+    SmartDashboard.putNumber("can/controllers frames/s", total);
+    CANStatus status = RobotController.getCANStatus();
+    SmartDashboard.putNumber("can/utilization %", status.percentBusUtilization * 100);
+    SmartDashboard.putNumber("can/tx full",       status.txFullCount - lastTxFull);  //frames we could not queue
+    SmartDashboard.putNumber("can/bus off",       status.busOffCount - lastBusOff);
+    SmartDashboard.putNumber("can/rx errors",     status.receiveErrorCount);  //the CAN chip's error counters, not totals
+    SmartDashboard.putNumber("can/tx errors",     status.transmitErrorCount);
+    lastTxFull = status.txFullCount;
+    lastBusOff = status.busOffCount;
+  }
+}
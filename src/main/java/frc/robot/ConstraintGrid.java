@@ -0,0 +1,84 @@
+package frc.robot;
+
+/**
+ * Which arm and wrist positions are allowed, precomputed on a grid so most checks are one array read.
+ *
+ * The region is described by a Region test. A cell whose four corners are all allowed is marked
+ * inside, and for a convex region (the joint limits plus HAND_UNDER_EXTEND_LIMIT are) every point in
+ * it is allowed. A point in any other cell is handed to the Region itself, so the answer is exact
+ * right up to the edge, where the planner's clamped goals and moves along the edge are.
+ */
+public class ConstraintGrid {
+  /** The allowed region, in pot counts. */
+  public interface Region {
+    boolean allowed(double armCounts, double wristCounts);
+  }
+
+  private final Region region;
+  private final double armMin, wristMin;
+  private final double cellsPerCount;
+  private final int armCells, wristCells;
+  private final long[] bits;  //one bit per cell, arm major, set if the whole cell is inside
+
+  /**
+   * @param armMin lowest arm pot count covered, anything outside the grid is not allowed
+   * @param armMax highest arm pot count covered
+   * @param wristMin lowest wrist pot count covered
+   * @param wristMax highest wrist pot count covered
+   * @param cellCounts width of a cell in pot counts
+   */
+  public ConstraintGrid(double armMin, double armMax, double wristMin, double wristMax, double cellCounts, Region region)
+  {
+    this.region = region;
+    this.armMin = armMin;
+    this.wristMin = wristMin;
+    cellsPerCount = 1.0 / cellCounts;
+    armCells = (int)Math.ceil((armMax - armMin) * cellsPerCount);
+    wristCells = (int)Math.ceil((wristMax - wristMin) * cellsPerCount);
+    bits = new long[(armCells * wristCells + 63) >>> 6];
+    //corners are shared by neighboring cells, so test each corner once
+    boolean[] lower = new boolean[wristCells + 1];
+    boolean[] upper = new boolean[wristCells + 1];
+    corners(region, armMin, cellCounts, lower);
+    for(int a = 0; a < armCells; a++)
+    {
+      corners(region, armMin + (a + 1) * cellCounts, cellCounts, upper);
+      for(int w = 0; w < wristCells; w++)
+      {
+        if(lower[w] && lower[w + 1] && upper[w] && upper[w + 1])
+        {
+          int cell = a * wristCells + w;
+          bits[cell >>> 6] |= 1L << cell;
+        }
+      }
+      boolean[] swap = lower;
+      lower = upper;
+      upper = swap;
+    }
+  }
+
+  private void corners(Region region, double arm, double cellCounts, boolean[] out)
+  {
+    for(int w = 0; w < out.length; w++)
+    {
+      out[w] = region.allowed(arm, wristMin + w * cellCounts);
+    }
+  }
+
+  /** @return true if the position is inside the allowed region */
+  public boolean allowed(double armCounts, double wristCounts)
+  {
+    double a = (armCounts - armMin) * cellsPerCount;
+    double w = (wristCounts - wristMin) * cellsPerCount;
+    if(!(a >= 0 && a < armCells && w >= 0 && w < wristCells))
+    {
+      return false; //also catches NaN
+    }
+    int cell = (int)a * wristCells + (int)w;
+    if((bits[cell >>> 6] & (1L << cell)) != 0)
+    {
+      return true;
+    }
+    return region.allowed(armCounts, wristCounts); //on or near the edge
+  }
+}
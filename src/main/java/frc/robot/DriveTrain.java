@@ -6,6 +6,8 @@
 /*----------------------------------------------------------------------------*/
 
 package frc.robot;
+import com.ctre.phoenix.motorcontrol.InvertType;
+import com.ctre.phoenix.motorcontrol.can.BaseMotorController;
 import com.ctre.phoenix.motorcontrol.can.WPI_TalonSRX;
 import com.ctre.phoenix.motorcontrol.can.WPI_VictorSPX;
 import edu.wpi.first.wpilibj.VictorSP;
@@ -39,7 +41,14 @@ public class DriveTrain
   SpeedController leftSpeedGroup; 
   SpeedController rightSpeedGroup;
   DifferentialDrive diffDrive;
+  OutputCache.CachedSpeedController leftOutput;  //what diffDrive drives, kept to record the commanded outputs
+  OutputCache.CachedSpeedController rightOutput;
   double DRIVE_SCALE = 0.99;
+  double powerScale  = 1.0;  //DRIVE_SCALE is cut by this when the PowerManager sheds current
+  //drive(0,0) every loop is only passed on when it changes, see OutputCache
+  //The rear CAN controllers follow the front ones, so each drive() sets two controllers instead of four,
+  // and the drive controllers' unused status frames are slowed down. See CanBusMonitor
+  static final boolean CAN_FOLLOWERS = true;
   
   public DriveTrain(OurBots selectedBot)//constructor
   {
@@ -49,35 +58,74 @@ public class DriveTrain
       case PEANUT:
         driveLeft_peanut	= new Spark(0);
         driveRight_peanut	= new Spark(1);
-        diffDrive = new DifferentialDrive(driveLeft_peanut,driveRight_peanut);
+        leftOutput  = OutputCache.get().wrap("driveLeft",  driveLeft_peanut);
+        rightOutput = OutputCache.get().wrap("driveRight", driveRight_peanut);
         break;
       case WM2019_2ND:
         driveLeftFront_2nd  = new VictorSP(hMap.canID_driveMotorLeftFront);
         driveLeftRear_2nd   = new WPI_TalonSRX(hMap.canID_driveMotorLeftRear);
         driveRightFront_2nd = new WPI_TalonSRX(hMap.canID_driveMotorRightFront);
         driveRightRear_2nd  = new WPI_TalonSRX(hMap.canID_driveMotorRightRear);
-        leftSpeedGroup = new SpeedControllerGroup(driveLeftFront_2nd, driveLeftRear_2nd);; 
-        rightSpeedGroup = new SpeedControllerGroup(driveRightFront_2nd, driveRightRear_2nd);;
-        diffDrive = new DifferentialDrive(leftSpeedGroup,rightSpeedGroup);
+        leftSpeedGroup = new SpeedControllerGroup(driveLeftFront_2nd, driveLeftRear_2nd);; //PWM front can not lead a CAN follower
+        if(CAN_FOLLOWERS)
+        {
+          follow(driveRightRear_2nd, driveRightFront_2nd);
+          rightSpeedGroup = driveRightFront_2nd;
+          CanBusMonitor can = CanBusMonitor.get();
+          can.slowDrive("driveLeftRear",   driveLeftRear_2nd,   false);
+          can.slowDrive("driveRightFront", driveRightFront_2nd, true);
+          can.slowDrive("driveRightRear",  driveRightRear_2nd,  false);
+        }
+        else
+        {
+          rightSpeedGroup = new SpeedControllerGroup(driveRightFront_2nd, driveRightRear_2nd);;
+        }
+        leftOutput  = OutputCache.get().wrap("driveLeft",  leftSpeedGroup);
+        rightOutput = OutputCache.get().wrap("driveRight", rightSpeedGroup);
         break;
       case WM2019_BAG:
       default:
         driveLeftFront_bag	= new WPI_VictorSPX(hMap.canID_driveMotorLeftFront);	
         driveLeftRear_bag 	= new WPI_VictorSPX(hMap.canID_driveMotorLeftRear);
         driveRightFront_bag	= new WPI_VictorSPX(hMap.canID_driveMotorRightFront);
-        driveRightRear_bag	= new WPI_VictorSPX(hMap.PDP_driveMotorRightRear);
-        leftSpeedGroup = new SpeedControllerGroup(driveLeftFront_bag, driveLeftRear_bag);; 
-        rightSpeedGroup = new SpeedControllerGroup(driveRightFront_bag, driveRightRear_bag);;
-        diffDrive = new DifferentialDrive(leftSpeedGroup,rightSpeedGroup);
+        driveRightRear_bag	= new WPI_VictorSPX(hMap.canID_driveMotorRightRear);
+        if(CAN_FOLLOWERS)
+        {
+          follow(driveLeftRear_bag,  driveLeftFront_bag);
+          follow(driveRightRear_bag, driveRightFront_bag);
+          leftSpeedGroup = driveLeftFront_bag;
+          rightSpeedGroup = driveRightFront_bag;
+          CanBusMonitor can = CanBusMonitor.get();
+          can.slowDrive("driveLeftFront",  driveLeftFront_bag,  true);
+          can.slowDrive("driveLeftRear",   driveLeftRear_bag,   false);
+          can.slowDrive("driveRightFront", driveRightFront_bag, true);
+          can.slowDrive("driveRightRear",  driveRightRear_bag,  false);
+        }
+        else
+        {
+          leftSpeedGroup = new SpeedControllerGroup(driveLeftFront_bag, driveLeftRear_bag);; 
+          rightSpeedGroup = new SpeedControllerGroup(driveRightFront_bag, driveRightRear_bag);;
+        }
+        leftOutput  = OutputCache.get().wrap("driveLeft",  leftSpeedGroup);
+        rightOutput = OutputCache.get().wrap("driveRight", rightSpeedGroup);
         break;
     }
+    diffDrive = new DifferentialDrive(leftOutput, rightOutput);
     diffDrive.setSafetyEnabled(false);
   }
+
+  /** The rear controller copies the front one's output, including DifferentialDrive's right side inversion. */
+  private void follow(BaseMotorController rear, BaseMotorController front)
+  {
+    rear.follow(front);
+    rear.setInverted(InvertType.FollowMaster);
+  }
   public void drive(double left, double right)
   {
      if(Math.abs(left)>0.1 || Math.abs(right)>0.1) //don't creep
      {
-        diffDrive.tankDrive(left*DRIVE_SCALE,right*DRIVE_SCALE);
+        double scale = DRIVE_SCALE*powerScale;
+        diffDrive.tankDrive(left*scale,right*scale);
      }
      else
      {
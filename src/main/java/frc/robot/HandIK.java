@@ -0,0 +1,138 @@
+package frc.robot;
+
+/**
+ * Arm and wrist pot targets for a hand height and pitch, so a scoring height can be written down
+ * in inches instead of tuning an ARM_POSE pair by hand.
+ *
+ * The arm and wrist are two joints, so they can put the hand at a height with a pitch, and the
+ * reach is whatever that works out to (reach() gives it). Height is the hand point above the floor
+ * in inches. Pitch is the hand angle from straight out in degrees, positive up, the same as the
+ * wrist angle relative to gravity in ArmWristControl.
+ *
+ * Solving needs an asin and the calibration lines, so every answer is worked out once into a table
+ * over height and pitch and read with bilinear interpolation. A height and pitch the joints can
+ * not reach, or that breaks ArmWrist.isHandPositionAllowed, is NaN in the table, and so is any
+ * lookup next to one.
+ */
+public class HandIK {
+  static final double HEIGHT_STEP = 0.5;    //inches between table entries
+  static final double PITCH_MIN   = -90;    //degrees, hand pointing at the floor
+  static final double PITCH_MAX   = 90;     //hand straight up
+  static final double PITCH_STEP  = 1;      //degrees between table entries
+
+  private final double armLength, handLength, pivotHeight;
+  private final double heightMin;
+  private final int heights, pitches;
+  private final float[] armTable;           //pot counts, height major
+  private final float[] wristTable;
+  //----- results of the last lookup() or solve() -----
+  double armCounts   = Double.NaN;
+  double wristCounts = Double.NaN;
+
+  /** The robot's arm, from the ArmWrist constants. */
+  public HandIK()
+  {
+    this(ArmWrist.ARM_LENGTH, ArmWrist.HAND_LENGTH, ArmWrist.ARM_PIVOT_HEIGHT);
+  }
+
+  /**
+   * @param armLength arm pivot to wrist pivot, inches
+   * @param handLength wrist pivot to the hand point, inches
+   * @param pivotHeight floor to the arm pivot, inches
+   */
+  public HandIK(double armLength, double handLength, double pivotHeight)
+  {
+    this.armLength = armLength;
+    this.handLength = handLength;
+    this.pivotHeight = pivotHeight;
+    heightMin = pivotHeight - armLength - handLength;
+    heights = (int)Math.ceil(2 * (armLength + handLength) / HEIGHT_STEP) + 1;
+    pitches = (int)Math.round((PITCH_MAX - PITCH_MIN) / PITCH_STEP) + 1;
+    armTable = new float[heights * pitches];
+    wristTable = new float[heights * pitches];
+    for(int h = 0; h < heights; h++)
+    {
+      for(int p = 0; p < pitches; p++)
+      {
+        solve(heightMin + h * HEIGHT_STEP, PITCH_MIN + p * PITCH_STEP);
+        armTable[h * pitches + p] = (float)armCounts;
+        wristTable[h * pitches + p] = (float)wristCounts;
+      }
+    }
+  }
+
+  /**
+   * Table lookup, cheap enough for the loop.
+   * @return true if the hand can get there. The targets are left in armCounts and wristCounts
+   */
+  public boolean lookup(double heightInches, double pitchDegrees)
+  {
+    double h = (heightInches - heightMin) * (1.0 / HEIGHT_STEP);
+    double p = (pitchDegrees - PITCH_MIN) * (1.0 / PITCH_STEP);
+    if(!(h >= 0 && h <= heights - 1 && p >= 0 && p <= pitches - 1))
+    {
+      armCounts = Double.NaN;     //also catches NaN
+      wristCounts = Double.NaN;
+      return false;
+    }
+    int h0 = Math.min((int)h, heights - 2);
+    int p0 = Math.min((int)p, pitches - 2);
+    double hFraction = h - h0;
+    double pFraction = p - p0;
+    int i = h0 * pitches + p0;
+    armCounts = bilinear(armTable, i, pitches, hFraction, pFraction);
+    wristCounts = bilinear(wristTable, i, pitches, hFraction, pFraction);
+    return !Double.isNaN(armCounts) && !Double.isNaN(wristCounts);
+  }
+
+  private static double bilinear(float[] table, int i, int rowLength, double hFraction, double pFraction)
+  {
+    double low = table[i] + (table[i + 1] - table[i]) * pFraction;
+    double high = table[i + rowLength] + (table[i + rowLength + 1] - table[i + rowLength]) * pFraction;
+    return low + (high - low) * hFraction;
+  }
+
+  /**
+   * The exact answer, with trig. Used to build the table.
+   * @return true if the hand can get there. The targets are left in armCounts and wristCounts
+   */
+  public boolean solve(double heightInches, double pitchDegrees)
+  {
+    armCounts = Double.NaN;
+    wristCounts = Double.NaN;
+    double pitch = Math.toRadians(pitchDegrees);
+    //the wrist pivot has to be one hand length back along the pitch from the hand point
+    double sinArm = (heightInches - pivotHeight - handLength * Math.sin(pitch)) / armLength;
+    if(!(sinArm >= -1 && sinArm <= 1))
+    {
+      return false;
+    }
+    double armAngle = Math.toDegrees(Math.asin(sinArm));  //the arm never goes past straight up or down
+    double wristAngle = pitchDegrees - armAngle;          //relative to the arm
+    double arm = JointTable.interpolate(ArmWrist.ARM_CALIBRATION_ANGLES, ArmWrist.ARM_CALIBRATION_POTS, armAngle);
+    double wrist = JointTable.interpolate(ArmWrist.WRIST_CALIBRATION_ANGLES, ArmWrist.WRIST_CALIBRATION_POTS, wristAngle);
+    if(!ArmWrist.isHandPositionAllowed(arm, wrist))
+    {
+      return false;
+    }
+    armCounts = arm;
+    wristCounts = wrist;
+    return true;
+  }
+
+  /** @return how far in front of the arm pivot the hand is, inches, for pot counts from lookup() or solve() */
+  public double reach(double armCounts, double wristCounts)
+  {
+    double armAngle = JointTable.interpolate(ArmWrist.ARM_CALIBRATION_POTS, ArmWrist.ARM_CALIBRATION_ANGLES, armCounts);
+    double wristAngle = JointTable.interpolate(ArmWrist.WRIST_CALIBRATION_POTS, ArmWrist.WRIST_CALIBRATION_ANGLES, wristCounts);
+    return armLength * Math.cos(Math.toRadians(armAngle)) + handLength * Math.cos(Math.toRadians(armAngle + wristAngle));
+  }
+
+  /** @return hand height above the floor, inches, for pot counts. The inverse of solve() */
+  public double height(double armCounts, double wristCounts)
+  {
+    double armAngle = JointTable.interpolate(ArmWrist.ARM_CALIBRATION_POTS, ArmWrist.ARM_CALIBRATION_ANGLES, armCounts);
+    double wristAngle = JointTable.interpolate(ArmWrist.WRIST_CALIBRATION_POTS, ArmWrist.WRIST_CALIBRATION_ANGLES, wristCounts);
+    return pivotHeight + armLength * Math.sin(Math.toRadians(armAngle)) + handLength * Math.sin(Math.toRadians(armAngle + wristAngle));
+  }
+}
@@ -0,0 +1,108 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.Joystick;
+
+/**
+ * Everything the loop decides from, read once at the top of linkPack: every joystick axis, the
+ * buttons, the POV and both pots.
+ *
+ * Asking the Joystick again in each linkJoyStickTo* method costs a driver station lookup per call,
+ * and a value can change between two calls in the same loop (getPOV() was read three times for
+ * the pneumatics). With one snapshot every decision in a loop sees the same inputs, and the whole
+ * input of a loop is one small record that can be logged.
+ *
+ * Preallocated and reused. Only capture() writes it, and it is called once per loop before anything
+ * reads it, so to the rest of the loop it is read only. Robot loop thread only.
+ * log() records it as a TelemetryLog TYPE_INPUT record and load() puts such a record back, which is
+ * how MatchReplay runs a match again off the robot.
+ */
+public final class InputSnapshot {
+  static final int AXES = 6;        //the IZT joystick, see HardwareMap
+  static final int NO_POV = -1;     //what getPOV() returns when the D-pad is not pressed
+
+  private final double[] axes = new double[AXES];
+  private int buttons = 0;          //bit n-1 is button n, as DriverStation.getStickButtons gives them
+  private int pov = NO_POV;
+  private double armPot = 0;        //[-1.0 to 1.0]
+  private double wristPot = 0;
+  private long timeNanos = 0;       //System.nanoTime() when captured
+  private long sequence = 0;        //counts captures
+
+  /** Read all inputs. The buttons come in one call as a bit mask. */
+  void capture(Joystick joy, ArmWrist armWrist)
+  {
+    timeNanos = System.nanoTime();
+    for(int i = 0; i < AXES; i++)
+    {
+      axes[i] = joy.getRawAxis(i);
+    }
+    buttons = DriverStation.getInstance().getStickButtons(joy.getPort());
+    pov = joy.getPOV();
+    armPot = armWrist.readArmPosition();
+    wristPot = armWrist.readWristPosition();
+    sequence++;
+  }
+
+  /** Record this snapshot, fields in TelemetryLog.FIELD_NAMES[TYPE_INPUT] order. */
+  void log(TelemetryLog telemetry)
+  {
+    telemetry.log(TelemetryLog.TYPE_INPUT, axes[0], axes[1], axes[2], axes[3], axes[4], axes[5],
+                  buttons, pov, armPot, wristPot);
+  }
+
+  /** The reverse of log(): fill the snapshot from the fields of a TYPE_INPUT record. */
+  void load(double[] fields, long timeNanos)
+  {
+    this.timeNanos = timeNanos;
+    for(int i = 0; i < AXES; i++)
+    {
+      axes[i] = fields[i];
+    }
+    buttons = (int)fields[6];
+    pov = (int)fields[7];
+    armPot = fields[8];
+    wristPot = fields[9];
+    sequence++;
+  }
+
+  /** @return same as Joystick.getRawAxis */
+  public double axis(int axis)
+  {
+    return axes[axis];
+  }
+
+  /** @return same as Joystick.getRawButton, buttons start at 1 */
+  public boolean button(int button)
+  {
+    return (buttons & (1 << (button - 1))) != 0;
+  }
+
+  /** @return same as Joystick.getPOV, NO_POV when not pressed */
+  public int pov()
+  {
+    return pov;
+  }
+
+  /** @return arm pot position [-1.0 to 1.0] */
+  public double armPot()
+  {
+    return armPot;
+  }
+
+  /** @return wrist pot position [-1.0 to 1.0] */
+  public double wristPot()
+  {
+    return wristPot;
+  }
+
+  public long timeNanos()
+  {
+    return timeNanos;
+  }
+
+  public long sequence()
+  {
+    return sequence;
+  }
+}
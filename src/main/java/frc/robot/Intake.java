@@ -6,22 +6,23 @@ import edu.wpi.first.wpilibj.*;
 public class Intake 
 {
   HardwareMap hMap;
-  Spark  intakeMotor;
+  OutputCache.CachedSpeedController intakeMotor; //a Spark, only passed changes (see OutputCache)
   double DRIVE_SCALE_IN = 0.7;
   double DRIVE_SCALE_OUT = 1;
+  double powerScale = 1.0; //set by the PowerManager
   
   public Intake()//constructor
   {
     hMap = new HardwareMap();
-    intakeMotor = new Spark(hMap.motorIntake);
+    intakeMotor = OutputCache.get().wrap("intake", new Spark(hMap.motorIntake));
   }
   public void driveMotorIn()
   {
-     intakeMotor.set(DRIVE_SCALE_IN);
+     intakeMotor.set(DRIVE_SCALE_IN*powerScale);
   }
   public void driveMotorOut()
   {
-     intakeMotor.set(-DRIVE_SCALE_OUT);
+     intakeMotor.set(-DRIVE_SCALE_OUT*powerScale);
   }
   public void driveMotorOff()
   {
@@ -0,0 +1,96 @@
+package frc.robot;
+
+/**
+ * Lookup tables for one joint, built once from its calibration, so the loop does no trig and no divides:
+ *  - pot position [-1.0 to 1.0] to joint angle in degrees
+ *  - angle relative to gravity in degrees to the A cos(theta) feed forward drive (see ArmWrist)
+ * Both are read with linear interpolation between table entries.
+ *
+ * The pot to angle mapping comes from calibration points (pot counts, measured angle). The
+ * ArmWrist constants give three points (full down, straight out, full up), which is the same two
+ * straight lines calculateJointAngle uses. More measured points can be added where the pot or the
+ * linkage is not linear. Past the first and last points the end segments are extended.
+ */
+public class JointTable {
+  static final int ANGLE_ENTRIES = 1025;       //over the whole pot range, about 2 counts apart
+  static final double GRAVITY_MIN_DEGREES = -360;
+  static final double GRAVITY_STEP_DEGREES = 0.5;
+  static final int GRAVITY_ENTRIES = 1441;     //-360 to +360 degrees
+
+  private final double[] angleTable = new double[ANGLE_ENTRIES];
+  private final double[] gravityTable = new double[GRAVITY_ENTRIES];
+  private final double angleIndexScale;        //table entries per unit of pot position
+
+  /**
+   * @param potDigitalRange pot counts at position 1.0
+   * @param calibrationPots pot counts of the calibration points, increasing
+   * @param calibrationAngles measured angle in degrees at each point, 0 is straight out
+   * @param driveM drive that just breaks friction, see ArmWrist
+   * @param driveC drive that holds the joint straight out, see ArmWrist
+   */
+  public JointTable(double potDigitalRange, double[] calibrationPots, double[] calibrationAngles,
+                    double driveM, double driveC)
+  {
+    if(calibrationPots.length < 2 || calibrationPots.length != calibrationAngles.length)
+    {
+      throw new IllegalArgumentException("need at least 2 calibration points, and an angle for each");
+    }
+    for(int i = 1; i < calibrationPots.length; i++)
+    {
+      if(calibrationPots[i] <= calibrationPots[i - 1])
+      {
+        throw new IllegalArgumentException("calibration pots must increase: " + calibrationPots[i]);
+      }
+    }
+    angleIndexScale = (ANGLE_ENTRIES - 1) / 2.0;
+    for(int i = 0; i < ANGLE_ENTRIES; i++)
+    {
+      double position = i / angleIndexScale - 1.0;
+      angleTable[i] = interpolate(calibrationPots, calibrationAngles, position * potDigitalRange);
+    }
+    for(int i = 0; i < GRAVITY_ENTRIES; i++)
+    {
+      gravityTable[i] = ArmWrist.gravityDrive(driveM, driveC, GRAVITY_MIN_DEGREES + i * GRAVITY_STEP_DEGREES);
+    }
+  }
+
+  /** @return joint angle in degrees for a pot position in [-1.0 to 1.0]. Outside that it uses the end value */
+  public double angle(double position)
+  {
+    return lookup(angleTable, (position + 1.0) * angleIndexScale);
+  }
+
+  /** @return A cos(theta) for an angle relative to gravity in degrees, in [-360 to 360] */
+  public double gravity(double angleDegrees)
+  {
+    return lookup(gravityTable, (angleDegrees - GRAVITY_MIN_DEGREES) * (1.0 / GRAVITY_STEP_DEGREES));
+  }
+
+  private static double lookup(double[] table, double index)
+  {
+    int last = table.length - 1;
+    if(!(index > 0))
+    {
+      return table[0];  //also catches NaN
+    }
+    if(index >= last)
+    {
+      return table[last];
+    }
+    int i = (int)index;
+    double fraction = index - i;
+    return table[i] + (table[i + 1] - table[i]) * fraction;
+  }
+
+  /** Piecewise linear through the points, extending the end segments past them. */
+  static double interpolate(double[] xs, double[] ys, double x)
+  {
+    int segment = 0;
+    while(segment < xs.length - 2 && x > xs[segment + 1])
+    {
+      segment++;
+    }
+    double x0 = xs[segment], x1 = xs[segment + 1];
+    return ys[segment] + (ys[segment + 1] - ys[segment]) * (x - x0) / (x1 - x0);
+  }
+}
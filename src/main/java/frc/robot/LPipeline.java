@@ -3,10 +3,7 @@ package frc.robot;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.HashMap;
 
 import edu.wpi.first.wpilibj.vision.VisionPipeline;
@@ -32,8 +29,53 @@ public class LPipeline implements VisionPipeline {
 	private Mat desaturateOutput = new Mat();
 	private Mat blurOutput = new Mat();
 	private Mat cvCannyOutput = new Mat();
-	private ArrayList<Line> findLinesOutput = new ArrayList<Line>();
-	private ArrayList<Line> filterLinesOutput = new ArrayList<Line>();
+	private LineBuffer findLinesOutput = new LineBuffer();
+	private LineBuffer filterLinesOutput = new LineBuffer();
+
+	//Step parameters. These used to be locals of process() and were rebuilt every frame.
+	private final double[] hsvThresholdHue = {0.0, 134.94880155491745};
+	private final double[] hsvThresholdSaturation = {0.0, 105.59727100788936};
+	private final double[] hsvThresholdValue = {160.5215739860809, 255.0};
+	private final BlurType blurType = BlurType.get("Gaussian Blur");
+	private final double blurRadius = 9.609610755164343;
+	private final double[] filterLinesAngle = {41.00720144861893, 360.0};
+
+	//Reusable working objects so a steady state frame does not allocate on the java or native heap.
+	//OpenCV only reallocates a Mat when the size or type it is asked to hold changes, so
+	//each Mat below must always be used for the same kind of image.
+	private final Mat hsvMat = new Mat();    //3 channel HSV, kept apart from the 1 channel threshold mask
+	private final Mat grayMat = new Mat();   //only used if findLines is handed a color image
+	private final Mat linesMat = new Mat();  //raw line segment detector output
+	private final Scalar hsvLow = new Scalar(0, 0, 0);
+	private final Scalar hsvHigh = new Scalar(0, 0, 0);
+	private final Size blurSize = new Size(0, 0);
+	private LineSegmentDetector lsd;         //created on first use, it is expensive to make
+
+	//Tracking mode. While searching, the pipeline runs on a downscaled pyramid level of the frame.
+	//After a confident detection it runs at full resolution on a region around the last target,
+	//and it falls back to searching once the target has been missed for a few frames.
+	//The region is always the size of the search image, so the working Mats hold the same size
+	//image in both modes and are not reallocated when the mode changes. A target too big to fit
+	//in the region with its padding is not tracked. The region is copied into roiMat instead of
+	//taking a submat, which would make a new Mat every frame.
+	//Line outputs are always in full frame pixel coordinates.
+	private static final int SEARCH_PYRAMID_LEVELS = 1; //each level halves the width and height
+	private static final int TRACK_MIN_LINES = 2;       //filtered lines needed to lock on
+	private static final int TRACK_LOST_FRAMES = 3;     //misses in a row before going back to searching
+	private static final int TRACK_PADDING = 40;        //pixels needed around the target on each side
+	private boolean trackingEnabled = true;
+	private boolean tracking = false;
+	private int trackMisses = 0;
+	private final Rect trackRoi = new Rect(0, 0, 0, 0);
+	private final Mat roiMat = new Mat();               //full resolution pixels of trackRoi
+	private final Size roiSize = new Size(0, 0);
+	private final Point roiCenter = new Point(0, 0);
+	private final Mat[] pyramid = new Mat[SEARCH_PYRAMID_LEVELS];
+	{
+		for (int i = 0; i < pyramid.length; i++) {
+			pyramid[i] = new Mat();
+		}
+	}
 
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
@@ -43,11 +85,30 @@ public class LPipeline implements VisionPipeline {
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	@Override	public void process(Mat source0) {
+		// Pick the working image, see the tracking mode comments above.
+		Mat workingImage = source0;
+		double scale = 1.0;
+		double offsetX = 0;
+		double offsetY = 0;
+		if (trackingEnabled && tracking) {
+			roiSize.width = trackRoi.width;
+			roiSize.height = trackRoi.height;
+			roiCenter.x = trackRoi.x + (trackRoi.width - 1) / 2.0;  //on a pixel center so it is a plain copy
+			roiCenter.y = trackRoi.y + (trackRoi.height - 1) / 2.0;
+			Imgproc.getRectSubPix(source0, roiSize, roiCenter, roiMat);
+			workingImage = roiMat;
+			offsetX = trackRoi.x;
+			offsetY = trackRoi.y;
+		} else if (trackingEnabled) {
+			for (int i = 0; i < pyramid.length; i++) {
+				Imgproc.pyrDown(workingImage, pyramid[i]);
+				workingImage = pyramid[i];
+				scale *= 2.0;
+			}
+		}
+
 		// Step HSV_Threshold0:
-		Mat hsvThresholdInput = source0;
-		double[] hsvThresholdHue = {0.0, 134.94880155491745};
-		double[] hsvThresholdSaturation = {0.0, 105.59727100788936};
-		double[] hsvThresholdValue = {160.5215739860809, 255.0};
+		Mat hsvThresholdInput = workingImage;
 		hsvThreshold(hsvThresholdInput, hsvThresholdHue, hsvThresholdSaturation, hsvThresholdValue, hsvThresholdOutput);
 
 		// Step Desaturate0:
@@ -56,9 +117,7 @@ public class LPipeline implements VisionPipeline {
 
 		// Step Blur0:
 		Mat blurInput = desaturateOutput;
-		BlurType blurType = BlurType.get("Gaussian Blur");
-		double blurRadius = 9.609610755164343;
-		blur(blurInput, blurType, blurRadius, blurOutput);
+		blur(blurInput, blurType, blurRadius / scale, blurOutput); //radius is in full frame pixels
 
 		// Step CV_Canny0:
 		Mat cvCannyImage = blurOutput;
@@ -71,13 +130,83 @@ public class LPipeline implements VisionPipeline {
 		// Step Find_Lines0:
 		Mat findLinesInput = cvCannyOutput;
 		findLines(findLinesInput, findLinesOutput);
+		findLinesOutput.transform(scale, offsetX, offsetY); //back to full frame coordinates
 
 		// Step Filter_Lines0:
-		ArrayList<Line> filterLinesLines = findLinesOutput;
+		LineBuffer filterLinesLines = findLinesOutput;
 		double filterLinesMinLength = 106.0;
-		double[] filterLinesAngle = {41.00720144861893, 360.0};
 		filterLines(filterLinesLines, filterLinesMinLength, filterLinesAngle, filterLinesOutput);
 
+		updateTracking(source0.cols(), source0.rows());
+	}
+
+	/**
+	 * Lock on to the filtered lines of this frame, or count a miss.
+	 * @param frameWidth width of the full frame in pixels
+	 * @param frameHeight height of the full frame in pixels
+	 */
+	private void updateTracking(int frameWidth, int frameHeight) {
+		if (!trackingEnabled) {
+			return;
+		}
+		final LineBuffer lines = filterLinesOutput;
+		if (lines.size() < TRACK_MIN_LINES) {
+			if (tracking && ++trackMisses > TRACK_LOST_FRAMES) {
+				tracking = false;
+			}
+			return;
+		}
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < lines.size(); i++) {
+			minX = Math.min(minX, Math.min(lines.x1[i], lines.x2[i]));
+			maxX = Math.max(maxX, Math.max(lines.x1[i], lines.x2[i]));
+			minY = Math.min(minY, Math.min(lines.y1[i], lines.y2[i]));
+			maxY = Math.max(maxY, Math.max(lines.y1[i], lines.y2[i]));
+		}
+		int width = searchSize(frameWidth);
+		int height = searchSize(frameHeight);
+		if (maxX - minX + 2 * TRACK_PADDING > width || maxY - minY + 2 * TRACK_PADDING > height) {
+			tracking = false; //too close to fit in the region, keep searching the whole frame
+			return;
+		}
+		trackRoi.width = width;
+		trackRoi.height = height;
+		trackRoi.x = roiStart((minX + maxX) / 2, width, frameWidth);
+		trackRoi.y = roiStart((minY + maxY) / 2, height, frameHeight);
+		tracking = true;
+		trackMisses = 0;
+	}
+
+	/** @return the width or height of the search image, which is the tracking region size too */
+	private static int searchSize(int frameSize) {
+		int size = frameSize;
+		for (int i = 0; i < SEARCH_PYRAMID_LEVELS; i++) {
+			size = (size + 1) / 2; //what pyrDown makes
+		}
+		return size;
+	}
+
+	private static int roiStart(float center, int size, int frameSize) {
+		int start = Math.round(center - size / 2.0f);
+		return Math.max(0, Math.min(start, frameSize - size));
+	}
+
+	/**
+	 * Turns the tracking mode on or off. When off every frame runs at full resolution over the whole image.
+	 * @param enabled true to use region of interest tracking and pyramid search
+	 */
+	public void setTrackingEnabled(boolean enabled) {
+		trackingEnabled = enabled;
+		tracking = false;
+		trackMisses = 0;
+	}
+
+	/**
+	 * @return true if the last frame was processed in a region around a previously found target.
+	 */
+	public boolean isTracking() {
+		return trackingEnabled && tracking;
 	}
 
 	/**
@@ -114,20 +243,37 @@ public class LPipeline implements VisionPipeline {
 
 	/**
 	 * This method is a generated getter for the output of a Find_Lines.
-	 * @return ArrayList<Line> output from Find_Lines.
+	 * @return LineBuffer output from Find_Lines.
 	 */
-	public ArrayList<Line> findLinesOutput() {
+	public LineBuffer findLinesOutput() {
 		return findLinesOutput;
 	}
 
 	/**
 	 * This method is a generated getter for the output of a Filter_Lines.
-	 * @return ArrayList<Line> output from Filter_Lines.
+	 * @return LineBuffer output from Filter_Lines.
 	 */
-	public ArrayList<Line> filterLinesOutput() {
+	public LineBuffer filterLinesOutput() {
 		return filterLinesOutput;
 	}
 
+	/**
+	 * Frees the native memory held by the pipeline. The pipeline must not be used afterwards.
+	 */
+	public void release() {
+		hsvThresholdOutput.release();
+		desaturateOutput.release();
+		blurOutput.release();
+		cvCannyOutput.release();
+		hsvMat.release();
+		grayMat.release();
+		linesMat.release();
+		roiMat.release();
+		for (Mat level : pyramid) {
+			level.release();
+		}
+	}
+
 
 	/**
 	 * Segment an image based on hue, saturation, and value ranges.
@@ -140,9 +286,14 @@ public class LPipeline implements VisionPipeline {
 	 */
 	private void hsvThreshold(Mat input, double[] hue, double[] sat, double[] val,
 	    Mat out) {
-		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HSV);
-		Core.inRange(out, new Scalar(hue[0], sat[0], val[0]),
-			new Scalar(hue[1], sat[1], val[1]), out);
+		Imgproc.cvtColor(input, hsvMat, Imgproc.COLOR_BGR2HSV);
+		hsvLow.val[0] = hue[0];
+		hsvLow.val[1] = sat[0];
+		hsvLow.val[2] = val[0];
+		hsvHigh.val[0] = hue[1];
+		hsvHigh.val[1] = sat[1];
+		hsvHigh.val[2] = val[1];
+		Core.inRange(hsvMat, hsvLow, hsvHigh, out);
 	}
 
 	/**
@@ -216,11 +367,15 @@ public class LPipeline implements VisionPipeline {
 		switch(type){
 			case BOX:
 				kernelSize = 2 * radius + 1;
-				Imgproc.blur(input, output, new Size(kernelSize, kernelSize));
+				blurSize.width = kernelSize;
+				blurSize.height = kernelSize;
+				Imgproc.blur(input, output, blurSize);
 				break;
 			case GAUSSIAN:
 				kernelSize = 6 * radius + 1;
-				Imgproc.GaussianBlur(input,output, new Size(kernelSize, kernelSize), radius);
+				blurSize.width = kernelSize;
+				blurSize.height = kernelSize;
+				Imgproc.GaussianBlur(input,output, blurSize, radius);
 				break;
 			case MEDIAN:
 				kernelSize = 2 * radius + 1;
@@ -264,28 +419,146 @@ public class LPipeline implements VisionPipeline {
 			return Math.toDegrees(Math.atan2(y2 - y1, x2 - x1));
 		}
 	}
+	/**
+	 * Struct of arrays store for line segments. Replaces ArrayList&lt;Line&gt; so a frame with
+	 * hundreds of segments does not box each one. Length and angle are computed once when
+	 * the buffer is filled. The arrays only grow, so once the buffer has seen the busiest
+	 * frame it never allocates again.
+	 */
+	public static class LineBuffer {
+		public float[] x1 = new float[0];
+		public float[] y1 = new float[0];
+		public float[] x2 = new float[0];
+		public float[] y2 = new float[0];
+		public float[] length = new float[0];
+		public float[] angle = new float[0];  //degrees, from atan2 so -180 to 180
+		private float[] raw = new float[0];   //interleaved x1,y1,x2,y2 rows straight from the Mat
+		private int count = 0;
+
+		/** @return number of lines currently held. */
+		public int size() {
+			return count;
+		}
+
+		public void clear() {
+			count = 0;
+		}
+
+		private void ensureCapacity(int n) {
+			if (x1.length >= n) {
+				return;
+			}
+			int capacity = Math.max(n, x1.length * 2);
+			x1 = new float[capacity];
+			y1 = new float[capacity];
+			x2 = new float[capacity];
+			y2 = new float[capacity];
+			length = new float[capacity];
+			angle = new float[capacity];
+			raw = new float[capacity * 4];
+		}
+
+		/**
+		 * Loads the output of a line segment detector, a N x 1 CV_32FC4 Mat, with one bulk copy.
+		 * @param lines detector output
+		 */
+		public void fill(Mat lines) {
+			count = 0;
+			if (lines.empty()) {
+				return;
+			}
+			final int n = lines.rows();
+			ensureCapacity(n);
+			lines.get(0, 0, raw);
+			for (int i = 0; i < n; i++) {
+				final int r = i * 4;
+				x1[i] = raw[r];
+				y1[i] = raw[r + 1];
+				x2[i] = raw[r + 2];
+				y2[i] = raw[r + 3];
+				final float dx = x2[i] - x1[i];
+				final float dy = y2[i] - y1[i];
+				length[i] = (float)Math.sqrt(dx * dx + dy * dy);
+				angle[i] = (float)Math.toDegrees(Math.atan2(dy, dx));
+			}
+			count = n;
+		}
+
+		/**
+		 * Maps the lines from a scaled and offset working image back to full frame coordinates.
+		 * @param scale multiplier for the coordinates and the length
+		 * @param offsetX added to x after scaling
+		 * @param offsetY added to y after scaling
+		 */
+		public void transform(double scale, double offsetX, double offsetY) {
+			if (scale == 1.0 && offsetX == 0 && offsetY == 0) {
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				x1[i] = (float)(x1[i] * scale + offsetX);
+				y1[i] = (float)(y1[i] * scale + offsetY);
+				x2[i] = (float)(x2[i] * scale + offsetX);
+				y2[i] = (float)(y2[i] * scale + offsetY);
+				length[i] = (float)(length[i] * scale);
+			}
+		}
+
+		/**
+		 * Copies the lines that pass the filter into out, keeping their order.
+		 * out may be this buffer, in which case it is compacted in place.
+		 * @param minLength The minimum length of a line to be kept.
+		 * @param minAngle The minimum angle of a line to be kept.
+		 * @param maxAngle The maximum angle of a line to be kept.
+		 * @param out The buffer that receives the kept lines.
+		 */
+		public void filter(double minLength, double minAngle, double maxAngle, LineBuffer out) {
+			out.ensureCapacity(count);
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				final float a = angle[i];
+				if (length[i] >= minLength
+					&& ((a >= minAngle && a <= maxAngle)
+					|| (a + 180.0 >= minAngle && a + 180.0 <= maxAngle))) {
+					out.x1[kept] = x1[i];
+					out.y1[kept] = y1[i];
+					out.x2[kept] = x2[i];
+					out.y2[kept] = y2[i];
+					out.length[kept] = length[i];
+					out.angle[kept] = a;
+					kept++;
+				}
+			}
+			out.count = kept;
+		}
+
+		/**
+		 * Boxes one line. Handy for printing, but allocates so keep it out of the frame loop.
+		 * @param i index of the line
+		 * @return a copy of the line
+		 */
+		public Line get(int i) {
+			return new Line(x1[i], y1[i], x2[i], y2[i]);
+		}
+	}
+
 	/**
 	 * Finds all line segments in an image.
 	 * @param input The image on which to perform the find lines.
 	 * @param lineList The output where the lines are stored.
 	 */
-	private void findLines(Mat input, ArrayList<Line> lineList) {
-		final LineSegmentDetector lsd = Imgproc.createLineSegmentDetector();
-		final Mat lines = new Mat();
+	private void findLines(Mat input, LineBuffer lineList) {
+		if (lsd == null) {
+			lsd = Imgproc.createLineSegmentDetector();
+		}
+		final Mat lines = linesMat;
 		lineList.clear();
 		if (input.channels() == 1) {
 			lsd.detect(input, lines);
 		} else {
-			final Mat tmp = new Mat();
-			Imgproc.cvtColor(input, tmp, Imgproc.COLOR_BGR2GRAY);
-			lsd.detect(tmp, lines);
-		}
-		if (!lines.empty()) {
-			for (int i = 0; i < lines.rows(); i++) {
-				lineList.add(new Line(lines.get(i, 0)[0], lines.get(i, 0)[1],
-					lines.get(i, 0)[2], lines.get(i, 0)[3]));
-			}
+			Imgproc.cvtColor(input, grayMat, Imgproc.COLOR_BGR2GRAY);
+			lsd.detect(grayMat, lines);
 		}
+		lineList.fill(lines);
 	}
 
 	/**
@@ -295,13 +568,9 @@ public class LPipeline implements VisionPipeline {
 	 * @param angle The minimum and maximum angle of a line to be kept.
 	 * @param outputs The output lines after the filter.
 	 */
-	private void filterLines(List<Line> inputs,double minLength,double[] angle,
-		List<Line> outputs) {
-		outputs = inputs.stream()
-				.filter(line -> line.lengthSquared() >= Math.pow(minLength,2))
-				.filter(line -> (line.angle() >= angle[0] && line.angle() <= angle[1])
-				|| (line.angle() + 180.0 >= angle[0] && line.angle() + 180.0 <= angle[1]))
-				.collect(Collectors.toList());
+	private void filterLines(LineBuffer inputs,double minLength,double[] angle,
+		LineBuffer outputs) {
+		inputs.filter(minLength, angle[0], angle[1], outputs);
 	}
 
 
@@ -0,0 +1,135 @@
+package frc.robot;
+
+/**
+ * Fixed bucket latency histogram. record() is a few adds and shifts and never allocates,
+ * so it can be called around every phase of every loop.
+ *
+ * Buckets are 1uS wide below 16uS, then each power of 2 is split into 16 buckets, so a
+ * percentile is never more than about 6% off. Anything over about one second lands in the last bucket.
+ * The histogram covers a window: read the stats, then call resetWindow(). Overruns and the
+ * total count are kept for the whole run.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;   //16
+  private static final int MAX_EXPONENT = 20;             //2^20 uS, about 1 second
+  static final int BUCKETS = SUB_BUCKETS * (MAX_EXPONENT - SUB_BITS + 2);
+
+  final String name;
+  private final long overrunNanos;        //a sample longer than this counts as an overrun
+  private final long[] buckets = new long[BUCKETS];
+  private long windowCount = 0;
+  private long windowMaxNanos = 0;
+  private long totalCount = 0;
+  private long overruns = 0;
+
+  /**
+   * @param name shown on the dashboard
+   * @param overrunSeconds a sample longer than this counts as an overrun, 0 for no overrun counting
+   */
+  public LatencyHistogram(String name, double overrunSeconds)
+  {
+    this.name = name;
+    this.overrunNanos = overrunSeconds > 0 ? (long)(overrunSeconds * 1.0e9) : Long.MAX_VALUE;
+  }
+
+  public void record(long nanos)
+  {
+    buckets[bucketOf(nanos / 1000)]++;
+    windowCount++;
+    totalCount++;
+    if(nanos > windowMaxNanos)
+    {
+      windowMaxNanos = nanos;
+    }
+    if(nanos > overrunNanos)
+    {
+      overruns++;
+    }
+  }
+
+  /**
+   * Record the time since startNanos.
+   * @return now, so calls can be chained to time back to back phases
+   */
+  public long recordSince(long startNanos)
+  {
+    long now = System.nanoTime();
+    record(now - startNanos);
+    return now;
+  }
+
+  /** @return the p'th percentile (0 to 1) of this window in microseconds, 0 if nothing was recorded */
+  public double percentileMicros(double p)
+  {
+    if(windowCount == 0)
+    {
+      return 0;
+    }
+    long rank = (long)Math.ceil(p * windowCount);
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++)
+    {
+      seen += buckets[i];
+      if(seen >= rank && buckets[i] > 0)
+      {
+        return Math.min(bucketUpperMicros(i), windowMaxNanos / 1000.0);
+      }
+    }
+    return windowMaxNanos / 1000.0;
+  }
+
+  public double maxMicros()
+  {
+    return windowMaxNanos / 1000.0;
+  }
+
+  public long getWindowCount()
+  {
+    return windowCount;
+  }
+
+  public long getTotalCount()
+  {
+    return totalCount;
+  }
+
+  public long getOverruns()
+  {
+    return overruns;
+  }
+
+  public void resetWindow()
+  {
+    java.util.Arrays.fill(buckets, 0);
+    windowCount = 0;
+    windowMaxNanos = 0;
+  }
+
+  static int bucketOf(long micros)
+  {
+    if(micros < SUB_BUCKETS)
+    {
+      return micros < 0 ? 0 : (int)micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);  //floor(log2), at least SUB_BITS here
+    if(exponent > MAX_EXPONENT)
+    {
+      return BUCKETS - 1;
+    }
+    int sub = (int)(micros >> (exponent - SUB_BITS)) - SUB_BUCKETS;
+    return SUB_BUCKETS * (exponent - SUB_BITS + 1) + sub;
+  }
+
+  static double bucketUpperMicros(int bucket)
+  {
+    if(bucket < SUB_BUCKETS)
+    {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    int sub = bucket % SUB_BUCKETS;
+    long lower = (long)(SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    return lower + (1L << (exponent - SUB_BITS)) - 1;
+  }
+}
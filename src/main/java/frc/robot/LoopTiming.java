@@ -0,0 +1,52 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * A set of LatencyHistograms for the phases of the robot loop, published to the SmartDashboard
+ * once a second by the "dashboard" TaskScheduler task so the publishing itself stays out of most loops.
+ * For each phase we publish p50, p99 and max of the last window in microseconds and the overrun count.
+ */
+public class LoopTiming {
+  static final double LOOP_BUDGET_SECONDS = 0.020;  //TimedRobot default period
+  private static final int MAX_PHASES = 32;
+
+  private final LatencyHistogram[] phases = new LatencyHistogram[MAX_PHASES];
+  private final String[][] keys = new String[MAX_PHASES][]; //built once so publishing does not concatenate
+  private int phaseCount = 0;
+
+  /**
+   * Make a histogram for a phase and add it to the published set.
+   * @param name dashboard name
+   * @param overrunSeconds samples over this count as overruns, 0 to not count them
+   */
+  public LatencyHistogram add(String name, double overrunSeconds)
+  {
+    LatencyHistogram histogram = new LatencyHistogram(name, overrunSeconds);
+    phases[phaseCount] = histogram;
+    keys[phaseCount] = new String[] {"loop/" + name + " p50 uS",
+                                     "loop/" + name + " p99 uS",
+                                     "loop/" + name + " max uS",
+                                     "loop/" + name + " overruns"};
+    phaseCount++;
+    return histogram;
+  }
+
+  /** Publish every phase that ran since the last publish and start a new window. */
+  public void publish()
+  {
+    for(int i = 0; i < phaseCount; i++)
+    {
+      LatencyHistogram h = phases[i];
+      if(h.getWindowCount() == 0)
+      {
+        continue; //phase did not run in this window (e.g. autonomous while in teleop)
+      }
+      SmartDashboard.putNumber(keys[i][0], h.percentileMicros(0.50));
+      SmartDashboard.putNumber(keys[i][1], h.percentileMicros(0.99));
+      SmartDashboard.putNumber(keys[i][2], h.maxMicros());
+      SmartDashboard.putNumber(keys[i][3], h.getOverruns());
+      h.resetWindow();
+    }
+  }
+}
@@ -0,0 +1,211 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import edu.wpi.first.hal.HAL;
+
+/**
+ * Desktop tool that runs a match again from its TelemetryLog, as fast as the CPU allows.
+ *
+ * On the robot linkPack records the PowerManager inputs, the InputSnapshot it ran from and the
+ * outputs it commanded every loop (TYPE_POWER, TYPE_INPUT and TYPE_OUTPUT records) and the mode at
+ * each autonomousInit and teleopInit (TYPE_MODE). The PID thread records the pots, targets and
+ * results of every run (TYPE_ARM_WRIST, stamped with the time the run measured its dt from) and
+ * each I term reset (TYPE_PID_RESET).
+ * This builds a Robot on the desktop HAL, where the motors, solenoids and pots are stubs, loads each
+ * recorded input into robot.input and calls linkPack, then diffs what it commanded against the
+ * recorded outputs. Each PID run goes through ArmWrist.runPids with the recorded pots, targets and
+ * time, and its PID outputs are diffed against the recorded ones. A difference means the code no
+ * longer does what it did in the match, that something it depends on (vision, the clock) is not
+ * in the records, or that the robot dropped records (see TelemetryLog.getDroppedCount).
+ *   gradlew replayMatch -Plog=telemetry_123_000.bin,telemetry_123_001.bin
+ * Give every file of a boot that the match runs through, in order. The records carry on from one file
+ * to the next, and starting part way through a boot leaves the PID state different from the robot's.
+ * Prints the differences and the linkPack run time, and exits 1 if anything differed, so a folder of
+ * match logs works as a regression test. Only one Robot can be made per run, the HAL hands each
+ * port out once.
+ */
+public class MatchReplay {
+  static final int MAX_PRINTED = 20;  //differences printed, all of them are counted
+  //TYPE_ARM_WRIST fields
+  static final int ARM_CURRENT = 0, ARM_PID = 2, WRIST_CURRENT = 5, WRIST_PID = 7, ARM_TARGET = 10, WRIST_TARGET = 11;
+
+  public static void main(String... args) throws IOException
+  {
+    if(args.length < 1)
+    {
+      System.out.println("usage: MatchReplay <telemetry.bin>...");
+      return;
+    }
+    ByteBuffer[] bufs = new ByteBuffer[args.length];
+    for(int i = 0; i < args.length; i++)
+    {
+      bufs[i] = ByteBuffer.wrap(Files.readAllBytes(new File(args[i]).toPath())).order(ByteOrder.LITTLE_ENDIAN);
+      if(bufs[i].getInt(0) != TelemetryLog.MAGIC)
+      {
+        System.out.println(args[i] + " is not a telemetry log");
+        return;
+      }
+    }
+
+    HAL.initialize(500, 0);
+    TelemetryLog.discardAll();  //the replayed Robot would otherwise log everything again to a new file
+    Robot robot = new Robot();
+    robot.replaying = true;
+    robot.initPositions();
+
+    String[] names = TelemetryLog.FIELD_NAMES[TelemetryLog.TYPE_OUTPUT];
+    long[] differences = new long[names.length];
+    String[] pidNames = {TelemetryLog.FIELD_NAMES[TelemetryLog.TYPE_ARM_WRIST][ARM_PID],
+                         TelemetryLog.FIELD_NAMES[TelemetryLog.TYPE_ARM_WRIST][WRIST_PID]};
+    long[] pidDifferences = new long[pidNames.length];
+    long pidRuns = 0, pidSkipped = 0;
+    boolean pidReset = false;    //a TYPE_PID_RESET came before this run's TYPE_ARM_WRIST
+    double[] fields = new double[TelemetryLog.MAX_FIELDS];
+    LatencyHistogram linkTime = new LatencyHistogram("linkPack", LoopTiming.LOOP_BUDGET_SECONDS);
+    long loops = 0, compared = 0, unpaired = 0, printed = 0;
+    long firstTime = 0;
+    boolean first = true;
+    boolean outputsDue = false;  //linkPack ran, the next TYPE_OUTPUT is what it did on the robot
+    long start = System.nanoTime();
+    for(ByteBuffer buf : bufs)
+    {
+      int recordBytes = buf.getInt(8);
+      int maxFields   = buf.getInt(12);
+      for(long r = 0; ; r++)  //until type 0, the header count can be behind after a power loss
+      {
+        int at = TelemetryLog.HEADER_BYTES + (int)(r * recordBytes);
+        if(at + recordBytes > buf.capacity())
+        {
+          break;
+        }
+        long time  = buf.getLong(at);
+        int type   = buf.getInt(at + 8);
+        int fieldCount = Math.min(buf.getInt(at + 12), Math.min(maxFields, fields.length));
+        if(type == 0)
+        {
+          break; //unused end of file
+        }
+        if(first)
+        {
+          firstTime = time;
+          first = false;
+        }
+        for(int f = 0; f < fieldCount; f++)
+        {
+          fields[f] = buf.getDouble(at + 16 + 8 * f);
+        }
+        switch(type)
+        {
+          case TelemetryLog.TYPE_MODE:
+            if(fields[0] == TelemetryLog.MODE_AUTONOMOUS)
+            {
+              robot.m_autoSelected = fields[1] == 1 ? Robot.kCustomAuto : Robot.kDefaultAuto;
+              robot.autonomousInit();
+            }
+            else
+            {
+              robot.teleopInit();
+            }
+            break;
+          case TelemetryLog.TYPE_POWER:
+            robot.power.load(fields);  //used by the next linkPack
+            break;
+          case TelemetryLog.TYPE_INPUT:
+            if(outputsDue)
+            {
+              unpaired++;  //the output record was dropped on the robot
+            }
+            robot.input.load(fields, time);
+            long linkStart = System.nanoTime();
+            robot.linkPack();
+            linkTime.recordSince(linkStart);
+            loops++;
+            outputsDue = true;
+            break;
+          case TelemetryLog.TYPE_OUTPUT:
+            if(!outputsDue)
+            {
+              unpaired++;  //the input record was dropped on the robot
+              break;
+            }
+            outputsDue = false;
+            compared++;
+            for(int f = 0; f < names.length; f++)
+            {
+              if(Double.doubleToLongBits(fields[f]) != Double.doubleToLongBits(robot.outputs[f]))
+              {
+                differences[f]++;
+                if(printed++ < MAX_PRINTED)
+                {
+                  System.out.printf("%10.3f s  %-12s recorded %s replayed %s\n", (time - firstTime) / 1.0e9,
+                                    names[f], fields[f], robot.outputs[f]);
+                }
+              }
+            }
+            break;
+          case TelemetryLog.TYPE_PID_RESET:
+            pidReset = true;
+            break;
+          case TelemetryLog.TYPE_ARM_WRIST:
+            if(fieldCount <= WRIST_TARGET)
+            {
+              pidSkipped++;  //written before the targets were recorded
+              break;
+            }
+            robot.armWrist.runPids(fields[ARM_CURRENT], fields[WRIST_CURRENT], fields[ARM_TARGET], fields[WRIST_TARGET],
+                                   pidReset, time);
+            pidReset = false;
+            pidRuns++;
+            double[] replayed = {robot.armWrist.control.pidOutputArm, robot.armWrist.control.pidOutputWrist};
+            double[] recorded = {fields[ARM_PID], fields[WRIST_PID]};
+            for(int p = 0; p < replayed.length; p++)
+            {
+              if(Double.doubleToLongBits(recorded[p]) != Double.doubleToLongBits(replayed[p]))
+              {
+                pidDifferences[p]++;
+                if(printed++ < MAX_PRINTED)
+                {
+                  System.out.printf("%10.3f s  %-12s recorded %s replayed %s\n", (time - firstTime) / 1.0e9,
+                                    pidNames[p], recorded[p], replayed[p]);
+                }
+              }
+            }
+            break;
+          default:
+            break; //for the dashboard, not an input to linkPack or the PIDs
+        }
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1.0e9;
+
+    long total = 0;
+    for(int f = 0; f < names.length; f++)
+    {
+      if(differences[f] != 0)
+      {
+        System.out.printf("  %-12s differed in %d loops\n", names[f], differences[f]);
+      }
+      total += differences[f];
+    }
+    for(int p = 0; p < pidNames.length; p++)
+    {
+      if(pidDifferences[p] != 0)
+      {
+        System.out.printf("  %-12s differed in %d PID runs\n", pidNames[p], pidDifferences[p]);
+      }
+      total += pidDifferences[p];
+    }
+    System.out.printf("%s: %d loops replayed in %.2f s (%.0f loops/s), %d compared, %d unpaired records\n",
+                      String.join(" ", args), loops, seconds, loops / seconds, compared, unpaired);
+    System.out.printf("%d PID runs replayed, %d from an older log without targets skipped\n", pidRuns, pidSkipped);
+    System.out.printf("linkPack: p50 %.1f uS, p99 %.1f uS, max %.1f uS\n", linkTime.percentileMicros(0.50),
+                      linkTime.percentileMicros(0.99), linkTime.maxMicros());
+    System.out.println(total == 0 ? "outputs and PIDs match the recording" : total + " differences");
+    System.exit(total == 0 ? 0 : 1);  //the Robot leaves threads running
+  }
+}
@@ -41,6 +41,14 @@ public class MiniPID{
 
 	private double setpointRange=0;
 
+	private double nominalPeriod=0;
+	private long lastTimeNanos=0;
+	private double dFilter=0;
+	private double lastDOutput=0;
+
+	/** A call more than this many nominal periods after the last one is treated as this many periods. */
+	static final double MAX_PERIODS_PER_CALL=5;
+
 	//**********************************
 	// Constructor functions
 	//**********************************
@@ -244,13 +252,67 @@ public class MiniPID{
 		this.setpoint=setpoint;
 	}
 
+	/**
+	 * Make the controller time aware.<br>
+	 * The gains, ramp rate and filters keep their meaning "per nominal period", so gains tuned
+	 * at one loop rate hold at any other rate or when the loop jitters: the I term grows by error*dt/period,
+	 * the D term uses the change in input divided by dt/period, and so on.<br>
+	 * Until this is set, every call counts as exactly one period (the original behavior) and dt is ignored.
+	 * @param seconds the loop period the gains were tuned at, 0 to turn time awareness off
+	 */
+	public void setNominalPeriod(double seconds){
+		nominalPeriod=Math.max(0,seconds);
+	}
+
+	/**
+	 * Set a low pass filter on the D term, which otherwise amplifies sensor noise.<br>
+	 * Same form as {@link #setOutputFilter(double) setOutputFilter}: 0 is off, larger values
+	 * weigh older D values more. With a nominal period set, the strength is per nominal period.
+	 * @param strength valid between [0..1)
+	 */
+	public void setDFilter(double strength){
+		if(strength==0 || bounded(strength,0,1)){
+		dFilter=strength;
+		}
+	}
+
 	/**
 	 * Calculate the output value for the current PID cycle.<br>
+	 * With a nominal period set, the time since the last call is measured with a monotonic clock.
 	 * @param actual The monitored value, typically as a sensor input.
 	 * @param setpoint The target value for the system
 	 * @return calculated output value for driving the system
 	 */
 	public double getOutput(double actual, double setpoint){
+		if(nominalPeriod==0){
+			return getOutputScaled(actual,setpoint,1);
+		}
+		long now=System.nanoTime();
+		double dt=firstRun ? nominalPeriod : (now-lastTimeNanos)*1e-9;
+		lastTimeNanos=now;
+		return getOutput(actual,setpoint,dt);
+	}
+
+	/**
+	 * Calculate the output value for the current PID cycle, with a known time since the last cycle.<br>
+	 * Use this when the caller has its own clock, like a simulator or a timestamped sensor.
+	 * @param actual The monitored value, typically as a sensor input.
+	 * @param setpoint The target value for the system
+	 * @param dt seconds since the last cycle. Ignored until {@link #setNominalPeriod(double) setNominalPeriod} is called
+	 * @return calculated output value for driving the system
+	 */
+	public double getOutput(double actual, double setpoint, double dt){
+		if(nominalPeriod==0 || dt<=0){
+			return getOutputScaled(actual,setpoint,1);
+		}
+		return getOutputScaled(actual,setpoint,Math.min(dt/nominalPeriod,MAX_PERIODS_PER_CALL));
+	}
+
+	/**
+	 * The PID cycle itself.
+	 * @param scale how many nominal periods this cycle covers, 1 when not time aware
+	 */
+	private double getOutputScaled(double actual, double setpoint, double scale){
 		double output;
 		double Poutput;
 		double Ioutput;
@@ -285,8 +347,13 @@ public class MiniPID{
 		// Calculate D Term
 		// Note, this is negative. This actually "slows" the system if it's doing
 		// the correct thing, and small values helps prevent output spikes and overshoot 
-		Doutput= -D*(actual-lastActual);
+		Doutput= -D*(actual-lastActual)/scale;
 		lastActual=actual;
+		if(dFilter!=0){
+			double strength=scale==1 ? dFilter : Math.pow(dFilter,scale);
+			Doutput=lastDOutput*strength+Doutput*(1-strength);
+		}
+		lastDOutput=Doutput;
 
 		// The Iterm is more complex. There's several things to factor in to make it easier to deal with.
 		// 1. maxIoutput restricts the amount of output contributed by the Iterm.
@@ -301,34 +368,38 @@ public class MiniPID{
 		output=Foutput + Poutput + Ioutput + Doutput;
 
 		// Figure out what we're doing with the error.
+		// With a nominal period set, the error counts in proportion to the time it was present
+		double rampRate=outputRampRate*scale;
+		double scaledError=error*scale;
 		if(minOutput!=maxOutput && !bounded(output, minOutput,maxOutput) ){
-			errorSum=error; 
+			errorSum=scaledError; 
 			// reset the error sum to a sane level
 			// Setting to current error ensures a smooth transition when the P term 
 			// decreases enough for the I term to start acting upon the controller
 			// From that point the I term will build up as would be expected
 		}
-		else if(outputRampRate!=0 && !bounded(output, lastOutput-outputRampRate,lastOutput+outputRampRate) ){
-			errorSum=error; 
+		else if(outputRampRate!=0 && !bounded(output, lastOutput-rampRate,lastOutput+rampRate) ){
+			errorSum=scaledError; 
 		}
 		else if(maxIOutput!=0){
-			errorSum=constrain(errorSum+error,-maxError,maxError);
+			errorSum=constrain(errorSum+scaledError,-maxError,maxError);
 			// In addition to output limiting directly, we also want to prevent I term 
 			// buildup, so restrict the error directly
 		}
 		else{
-			errorSum+=error;
+			errorSum+=scaledError;
 		}
 
 		// Restrict output to our specified output and ramp limits
 		if(outputRampRate!=0){
-			output=constrain(output, lastOutput-outputRampRate,lastOutput+outputRampRate);
+			output=constrain(output, lastOutput-rampRate,lastOutput+rampRate);
 		}
 		if(minOutput!=maxOutput){ 
 			output=constrain(output, minOutput,maxOutput);
 			}
 		if(outputFilter!=0){
-			output=lastOutput*outputFilter+output*(1-outputFilter);
+			double strength=scale==1 ? outputFilter : Math.pow(outputFilter,scale);
+			output=lastOutput*strength+output*(1-strength);
 		}
 
 		// Get a test printline with lots of details about the internal 
@@ -371,6 +442,19 @@ public class MiniPID{
 		return getOutput(actual,setpoint);
 	}
 
+	/**
+	 * The I term's share of the output, as of the last getOutput() call.<br>
+	 * Useful for spotting windup while tuning.
+	 * @return I times the accumulated error, restricted by the max I output if one is set
+	 */
+	public double getIOutput(){
+		double Ioutput=I*errorSum;
+		if(maxIOutput!=0){
+			Ioutput=constrain(Ioutput,-maxIOutput,maxIOutput);
+		}
+		return Ioutput;
+	}
+
 	/**
 	 * Resets the controller. This erases the I term buildup, and removes 
 	 * D gain on the next loop.<br>
@@ -381,10 +465,11 @@ public class MiniPID{
 	public void reset(){
 		firstRun=true;
 		errorSum=0;
+		lastDOutput=0;
 	}
 
 	/**
-     * Set the maximum rate the output can increase per cycle.<br>
+     * Set the maximum rate the output can increase per cycle, or per nominal period if one is set.<br>
      * This can prevent sharp jumps in output when changing setpoints or 
      * enabling a PID system, which might cause stress on physical or electrical
      * systems.  <br>
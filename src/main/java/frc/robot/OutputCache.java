@@ -0,0 +1,217 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.Solenoid;
+import edu.wpi.first.wpilibj.SpeedController;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Stops the loop from calling into WPILib and Phoenix with the same command every 20 mS.
+ *
+ * Most of the robot code says what an actuator should be doing every loop (hatchPull, climbExtendOff,
+ * driveMotorOff, drive(0,0)), which is easy to read, so that stays. Wrap the actuator here instead:
+ * a call is passed on only when it differs from the last one passed on, or when KEEP_ALIVE_SECONDS
+ * have passed so a controller that reset (brown out, loose wire) gets its command back.
+ * This saves the JNI call and the HAL or Phoenix work behind it. It does not cut bus traffic: the
+ * PCM and Phoenix control frames are resent on a fixed period whatever set() does (see CanBusMonitor
+ * for frame counts).
+ * Every wrapped device counts the calls it passed on and dropped, and publish() puts them on the
+ * dashboard. Run publish() from the "outputs" TaskScheduler task. Devices are used from the robot
+ * loop only.
+ */
+public class OutputCache {
+  static final double KEEP_ALIVE_SECONDS = 0.5;
+  private static final long KEEP_ALIVE_NANOS = (long)(KEEP_ALIVE_SECONDS * 1.0e9);
+  private static final int MAX_DEVICES = 16;
+
+  private static OutputCache instance;
+
+  private final Device[] devices = new Device[MAX_DEVICES];
+  private final String[][] keys = new String[MAX_DEVICES][]; //built once so publishing does not concatenate
+  private int deviceCount = 0;
+
+  /** @return the robot wide cache */
+  public static synchronized OutputCache get()
+  {
+    if(instance == null)
+    {
+      instance = new OutputCache();
+    }
+    return instance;
+  }
+
+  /** Counting and the keep alive, shared by the wrappers. */
+  static class Device {
+    final String name;
+    long callsPassed = 0;   //set() calls given to the real device
+    long callsDropped = 0;  //set() calls that repeated the last one
+    private long lastSendNanos = 0;
+
+    Device(String name)
+    {
+      this.name = name;
+    }
+
+    /** @return true if the call should be passed on. Counts it either way */
+    boolean shouldSend(boolean changed)
+    {
+      long now = System.nanoTime();
+      if(changed || callsPassed == 0 || now - lastSendNanos >= KEEP_ALIVE_NANOS)
+      {
+        callsPassed++;
+        lastSendNanos = now;
+        return true;
+      }
+      callsDropped++;
+      return false;
+    }
+  }
+
+  /** A Solenoid that is only set when its state changes. */
+  public static class CachedSolenoid extends Device {
+    private final Solenoid solenoid;
+    private boolean on = false;
+    private boolean pulsedWhileOn = false;
+
+    CachedSolenoid(String name, Solenoid solenoid)
+    {
+      super(name);
+      this.solenoid = solenoid;
+    }
+
+    public void set(boolean on)
+    {
+      if(shouldSend(on != this.on))
+      {
+        solenoid.set(on);
+      }
+      if(!this.on)
+      {
+        pulsedWhileOn = false;
+      }
+      this.on = on;
+    }
+
+    /** While the solenoid is held on, the first pulse goes out and the repeats are dropped. */
+    public void startPulse()
+    {
+      if(shouldSend(!on || !pulsedWhileOn))
+      {
+        solenoid.startPulse();
+      }
+      pulsedWhileOn = on;
+    }
+
+    public void setPulseDuration(double seconds)
+    {
+      solenoid.setPulseDuration(seconds);
+    }
+
+    /** @return the last state given to set(), passed on or not */
+    public boolean isOn()
+    {
+      return on;
+    }
+  }
+
+  /** A speed controller that only passes on set() when the value changes. */
+  public static class CachedSpeedController extends Device implements SpeedController {
+    private final SpeedController controller;
+    private double value = Double.NaN;
+
+    CachedSpeedController(String name, SpeedController controller)
+    {
+      super(name);
+      this.controller = controller;
+    }
+
+    @Override
+    public void set(double speed)
+    {
+      if(shouldSend(speed != value))
+      {
+        controller.set(speed);
+      }
+      value = speed;
+    }
+
+    @Override
+    public void pidWrite(double output)
+    {
+      set(output);
+    }
+
+    @Override
+    public double get()
+    {
+      return controller.get();
+    }
+
+    /** @return the last value given to set(), passed on or not. NaN before the first one */
+    public double commanded()
+    {
+      return value;
+    }
+
+    @Override
+    public void setInverted(boolean isInverted)
+    {
+      controller.setInverted(isInverted);
+      value = Double.NaN;  //the same value now means a different output
+    }
+
+    @Override
+    public boolean getInverted()
+    {
+      return controller.getInverted();
+    }
+
+    @Override
+    public void disable()
+    {
+      controller.disable();
+      value = Double.NaN;
+    }
+
+    @Override
+    public void stopMotor()
+    {
+      controller.stopMotor();
+      value = 0;
+    }
+  }
+
+  public CachedSolenoid wrap(String name, Solenoid solenoid)
+  {
+    return add(new CachedSolenoid(name, solenoid));
+  }
+
+  public CachedSpeedController wrap(String name, SpeedController controller)
+  {
+    return add(new CachedSpeedController(name, controller));
+  }
+
+  private synchronized <T extends Device> T add(T device)
+  {
+    if(deviceCount < MAX_DEVICES)
+    {
+      devices[deviceCount] = device;
+      keys[deviceCount] = new String[] {"outputs/" + device.name + " calls passed", "outputs/" + device.name + " calls dropped"};
+      deviceCount++;
+    }
+    else
+    {
+      System.out.println("*Error* OutputCache is full, not counting " + device.name);
+    }
+    return device;
+  }
+
+  /** Publish passed and dropped call counts since start for every device. */
+  public synchronized void publish()
+  {
+    for(int i = 0; i < deviceCount; i++)
+    {
+      SmartDashboard.putNumber(keys[i][0], devices[i].callsPassed);
+      SmartDashboard.putNumber(keys[i][1], devices[i].callsDropped);
+    }
+  }
+}
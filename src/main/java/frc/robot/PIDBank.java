@@ -0,0 +1,322 @@
+package frc.robot;
+
+import java.util.Arrays;
+
+/**
+ * Many PID controllers updated together, with the same math as MiniPID.
+ *
+ * Each controller is an index into parallel arrays (struct of arrays) rather than its own object,
+ * and update() runs all of them in one loop over those arrays. Features that are off are stored as
+ * values that have no effect (infinite limits, zero filters) instead of being checked with ifs, so
+ * the loop body is nearly straight line code. For each controller the output matches what MiniPID
+ * returns with the same settings and inputs.
+ *
+ * Usage:
+ *   PIDBank bank = new PIDBank(3);
+ *   bank.setPID(LEFT, p, i, d);  ...
+ *   ...looping code... bank.update(actuals, setpoints, outputs);
+ *
+ * It pays off as the number of controllers grows. With only two, separate MiniPIDs are as fast
+ * (see PIDBankBenchmark). Not thread safe, update and configure from one thread.
+ */
+public class PIDBank {
+  private static final double OFF = Double.POSITIVE_INFINITY;
+
+  final int size;
+  //----- settings, one entry per controller. "OFF" values make the feature a no-op ------
+  private final double[] p, i, d, f;
+  private final double[] maxIOutput;      //0 is off, as in MiniPID
+  private final double[] maxError;        //maxIOutput / I, as in MiniPID
+  private final double[] iLimit;          //maxIOutput or OFF
+  private final double[] errorLimit;      //maxError or OFF
+  private final double[] minOutput, maxOutput; //-OFF and OFF when there are no limits
+  private final double[] rampRate;        //OFF when there is no ramp rate
+  private final double[] outputFilter;    //0 is off
+  private final double[] dFilter;         //0 is off
+  private final double[] setpointRange;   //0 is off
+  private final boolean[] reversed;
+  private double nominalPeriod = 0;       //shared, all controllers are updated together
+  private long lastTimeNanos = 0;
+  //----- state -----
+  private final double[] errorSum, lastActual, lastOutput, lastDOutput;
+  private final boolean[] firstRun;
+  private int pendingFirstRuns;           //how many firstRun are set, so update() can skip checking them
+  private final double[] dStrengthScaled, outputStrengthScaled; //filter strengths for an off nominal dt
+
+  public PIDBank(int size)
+  {
+    this.size = size;
+    p = new double[size];
+    i = new double[size];
+    d = new double[size];
+    f = new double[size];
+    maxIOutput = new double[size];
+    maxError = new double[size];
+    iLimit = filled(size, OFF);
+    errorLimit = filled(size, OFF);
+    minOutput = filled(size, -OFF);
+    maxOutput = filled(size, OFF);
+    rampRate = filled(size, OFF);
+    outputFilter = new double[size];
+    dFilter = new double[size];
+    setpointRange = new double[size];
+    reversed = new boolean[size];
+    errorSum = new double[size];
+    lastActual = new double[size];
+    lastOutput = new double[size];
+    lastDOutput = new double[size];
+    firstRun = new boolean[size];
+    Arrays.fill(firstRun, true);
+    pendingFirstRuns = size;
+    dStrengthScaled = new double[size];
+    outputStrengthScaled = new double[size];
+  }
+
+  private static double[] filled(int size, double value)
+  {
+    double[] array = new double[size];
+    Arrays.fill(array, value);
+    return array;
+  }
+
+  //----- configuration, same meaning as the MiniPID method of the same name -------------------------
+
+  public void setPID(int index, double p, double i, double d)
+  {
+    this.p[index] = p;
+    this.d[index] = d;
+    setI(index, i);
+  }
+
+  public void setPID(int index, double p, double i, double d, double f)
+  {
+    this.f[index] = f;
+    setPID(index, p, i, d);
+  }
+
+  public void setI(int index, double i)
+  {
+    if(this.i[index] != 0)
+    {
+      errorSum[index] = errorSum[index] * this.i[index] / i;
+    }
+    if(maxIOutput[index] != 0)
+    {
+      maxError[index] = maxIOutput[index] / i;
+    }
+    this.i[index] = i;
+    checkSigns(index);
+    updateLimits(index);
+  }
+
+  public void setMaxIOutput(int index, double maximum)
+  {
+    maxIOutput[index] = maximum;
+    if(i[index] != 0)
+    {
+      maxError[index] = maximum / i[index];
+    }
+    updateLimits(index);
+  }
+
+  public void setOutputLimits(int index, double minimum, double maximum)
+  {
+    if(maximum < minimum)
+    {
+      return;
+    }
+    boolean on = minimum != maximum;
+    minOutput[index] = on ? minimum : -OFF;
+    maxOutput[index] = on ? maximum : OFF;
+    if(maxIOutput[index] == 0 || maxIOutput[index] > (maximum - minimum))
+    {
+      setMaxIOutput(index, maximum - minimum);
+    }
+  }
+
+  public void setOutputRampRate(int index, double rate)
+  {
+    rampRate[index] = rate != 0 ? rate : OFF;
+  }
+
+  public void setOutputFilter(int index, double strength)
+  {
+    if(strength == 0 || (0 < strength && strength < 1))
+    {
+      outputFilter[index] = strength;
+    }
+  }
+
+  public void setDFilter(int index, double strength)
+  {
+    if(strength == 0 || (0 < strength && strength < 1))
+    {
+      dFilter[index] = strength;
+    }
+  }
+
+  public void setSetpointRange(int index, double range)
+  {
+    setpointRange[index] = range;
+  }
+
+  public void setDirection(int index, boolean reversed)
+  {
+    this.reversed[index] = reversed;
+  }
+
+  /** Same as MiniPID.setNominalPeriod, for every controller in the bank. */
+  public void setNominalPeriod(double seconds)
+  {
+    nominalPeriod = Math.max(0, seconds);
+  }
+
+  /** Same as MiniPID.reset for one controller. */
+  public void reset(int index)
+  {
+    if(!firstRun[index])
+    {
+      pendingFirstRuns++;
+    }
+    firstRun[index] = true;
+    errorSum[index] = 0;
+    lastDOutput[index] = 0;
+  }
+
+  public void resetAll()
+  {
+    for(int k = 0; k < size; k++)
+    {
+      reset(k);
+    }
+  }
+
+  /** Same as MiniPID.getIOutput for one controller. */
+  public double getIOutput(int index)
+  {
+    return constrain(i[index] * errorSum[index], -iLimit[index], iLimit[index]);
+  }
+
+  private void updateLimits(int index)
+  {
+    boolean on = maxIOutput[index] != 0;
+    iLimit[index] = on ? maxIOutput[index] : OFF;
+    errorLimit[index] = on ? maxError[index] : OFF;
+  }
+
+  //flips only the gains with the wrong sign, as MiniPID does, so a 0 gain stays +0 and not -0
+  private void checkSigns(int index)
+  {
+    boolean r = reversed[index];
+    p[index] = (r ? p[index] > 0 : p[index] < 0) ? -p[index] : p[index];
+    i[index] = (r ? i[index] > 0 : i[index] < 0) ? -i[index] : i[index];
+    d[index] = (r ? d[index] > 0 : d[index] < 0) ? -d[index] : d[index];
+    f[index] = (r ? f[index] > 0 : f[index] < 0) ? -f[index] : f[index];
+  }
+
+  //----- the loop ------------------------------------------------------------------------------------
+
+  /**
+   * Run one cycle of every controller. With a nominal period set, dt is measured with a monotonic clock.
+   * @param actual sensor values, one per controller
+   * @param setpoint targets, one per controller
+   * @param output filled with the outputs, one per controller
+   */
+  public void update(double[] actual, double[] setpoint, double[] output)
+  {
+    if(nominalPeriod == 0)
+    {
+      update(actual, setpoint, output, 1);
+      return;
+    }
+    long now = System.nanoTime();
+    double dt = lastTimeNanos == 0 ? nominalPeriod : (now - lastTimeNanos) * 1e-9;
+    lastTimeNanos = now;
+    updateScaled(actual, setpoint, output, Math.min(dt / nominalPeriod, MiniPID.MAX_PERIODS_PER_CALL));
+  }
+
+  /** Run one cycle of every controller, dt seconds after the last one. Same as MiniPID.getOutput(actual, setpoint, dt). */
+  public void update(double[] actual, double[] setpoint, double[] output, double dt)
+  {
+    double scale = (nominalPeriod == 0 || dt <= 0) ? 1 : Math.min(dt / nominalPeriod, MiniPID.MAX_PERIODS_PER_CALL);
+    updateScaled(actual, setpoint, output, scale);
+  }
+
+  private void updateScaled(double[] actual, double[] setpoint, double[] output, double scale)
+  {
+    if(pendingFirstRuns != 0)
+    {
+      startFirstRuns(actual, setpoint);
+    }
+    //the filter strengths are per nominal period, so only off nominal calls need the pow
+    double[] dStrength = dFilter;
+    double[] oStrength = outputFilter;
+    if(scale != 1)
+    {
+      dStrength = dStrengthScaled;
+      oStrength = outputStrengthScaled;
+      for(int k = 0; k < size; k++)
+      {
+        dStrength[k] = Math.pow(dFilter[k], scale);
+        oStrength[k] = Math.pow(outputFilter[k], scale);
+      }
+    }
+    for(int k = 0; k < size; k++)
+    {
+      double act = actual[k];
+      double sp = setpoint[k];
+      double error = sp - act;
+      double fOut = f[k] * sp;
+      double pOut = p[k] * error;
+      //D, then its filter. A 0 strength filter passes the value through unchanged
+      double dOut = -d[k] * (act - lastActual[k]) / scale;
+      lastActual[k] = act;
+      double ds = dStrength[k];
+      dOut = lastDOutput[k] * ds + dOut * (1 - ds);
+      lastDOutput[k] = dOut;
+      //I, limited to the max I output (infinite when off)
+      double iOut = constrain(i[k] * errorSum[k], -iLimit[k], iLimit[k]);
+      double out = fOut + pOut + iOut + dOut;
+      //windup: restart the sum when the output is being clipped, otherwise accumulate within the limit.
+      //& and | rather than && and || so there is nothing to branch on
+      double last = lastOutput[k];
+      double ramp = rampRate[k] * scale;
+      double low = last - ramp;
+      double high = last + ramp;
+      double scaledError = error * scale;
+      boolean inside = (minOutput[k] < out) & (out < maxOutput[k]) & (low < out) & (out < high);
+      double limit = errorLimit[k];
+      errorSum[k] = inside ? constrain(errorSum[k] + scaledError, -limit, limit) : scaledError;
+      //ramp, limits and output filter
+      out = constrain(out, low, high);
+      out = constrain(out, minOutput[k], maxOutput[k]);
+      double os = oStrength[k];
+      out = last * os + out * (1 - os);
+      lastOutput[k] = out;
+      double range = setpointRange[k];
+      output[k] = ((act > sp - range) & (act < sp + range)) ? 0.0 : out;
+    }
+  }
+
+  /** MiniPID's first run: no previous input or output yet, so assume the current ones. */
+  private void startFirstRuns(double[] actual, double[] setpoint)
+  {
+    for(int k = 0; k < size; k++)
+    {
+      if(firstRun[k])
+      {
+        lastActual[k] = actual[k];
+        lastOutput[k] = p[k] * (setpoint[k] - actual[k]) + f[k] * setpoint[k];
+        firstRun[k] = false;
+      }
+    }
+    pendingFirstRuns = 0;
+  }
+
+  private static double constrain(double value, double min, double max)
+  {
+    if(value > max){ return max;}
+    if(value < min){ return min;}
+    return value;
+  }
+}
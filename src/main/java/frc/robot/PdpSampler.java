@@ -0,0 +1,200 @@
+package frc.robot;
+
+import java.lang.invoke.VarHandle;
+
+import edu.wpi.first.wpilibj.PowerDistributionPanel;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Reads the PDP in the background so the loop never waits on it.
+ *
+ * Every PDP read is a CAN round trip, and all 16 channels plus the total and the voltage add up to
+ * milliseconds. sample() does all of them from its own TaskScheduler thread at the period it was
+ * made with, then keeps the min, max and mean of each value over the last WINDOW_SECONDS.
+ * Anyone can read() a copy of all of it. The copy is only the cost of copying the arrays, with no
+ * CAN traffic, no lock and no allocation.
+ *
+ * The hand off is two copies and a sequence number, so readers never wait. sample() bumps the
+ * sequence and writes copy 0, then bumps it again and writes copy 1. read() copies whichever one the
+ * sequence says is not being written, and copies again only if the sequence moved meanwhile, which
+ * needs sample() to be running. A higher priority reader that interrupts sample() still gets a
+ * good copy the first time. Only sample() writes, which is one thread.
+ */
+public class PdpSampler {
+  static final int    CHANNELS       = 16;
+  static final int    TOTAL          = CHANNELS;      //index of the total current in the value arrays
+  static final int    VOLTAGE        = CHANNELS + 1;  //index of the battery voltage
+  static final int    VALUES         = CHANNELS + 2;
+  static final double SAMPLE_PERIOD  = 0.02;  //seconds, the PDP sends its status frames about this often
+  static final double WINDOW_SECONDS = 1.0;   //min, max and mean cover this much history
+  static final int    PRIORITY       = 10;    //real time, above the robot loop and below the PID thread
+
+  /** A copy of everything sampled, filled by read(). Preallocate one per reader and reuse it. */
+  public static class Readings {
+    final double[] latest = new double[VALUES];  //amps, and volts for VOLTAGE
+    final double[] min    = new double[VALUES];  //over the window
+    final double[] max    = new double[VALUES];
+    final double[] mean   = new double[VALUES];
+    long sampleNanos = 0;  //System.nanoTime() of the latest sample, 0 before the first
+    long samples     = 0;  //since start
+
+    /** @return latest amps on a PDP channel [0 to 15] */
+    public double current(int channel)
+    {
+      return latest[channel];
+    }
+
+    public double totalCurrent()
+    {
+      return latest[TOTAL];
+    }
+
+    public double voltage()
+    {
+      return latest[VOLTAGE];
+    }
+
+    /** @return the smallest reading in the window. value is a channel, TOTAL or VOLTAGE */
+    public double min(int value)
+    {
+      return min[value];
+    }
+
+    public double max(int value)
+    {
+      return max[value];
+    }
+
+    public double mean(int value)
+    {
+      return mean[value];
+    }
+
+    /** @return seconds since the latest sample, infinite before the first */
+    public double age()
+    {
+      return samples == 0 ? Double.POSITIVE_INFINITY : (System.nanoTime() - sampleNanos) * 1.0e-9;
+    }
+  }
+
+  final double period;
+  private final PowerDistributionPanel panel;
+  //----- sample() thread only -----
+  private final double[][] history;     //window of samples, a ring
+  private final double[] sum = new double[VALUES];
+  private int next = 0;                 //next history slot to overwrite
+  private int filled = 0;               //history slots in use
+  private final Readings computed = new Readings();
+  //----- shared -----
+  private final Readings[] shared = {new Readings(), new Readings()};
+  private volatile long sequence = 0;   //readers read shared[sequence & 1]
+  //----- publish(), robot loop only -----
+  private final Readings reader = new Readings();
+  private final String[] keys = new String[CHANNELS];  //built once so publishing does not concatenate
+
+  /**
+   * @param canID the PDP's CAN ID, see HardwareMap
+   * @param periodSeconds how often sample() will be run
+   */
+  public PdpSampler(int canID, double periodSeconds)
+  {
+    panel = new PowerDistributionPanel(canID);
+    period = periodSeconds;
+    history = new double[Math.max(1, (int)Math.round(WINDOW_SECONDS / periodSeconds))][VALUES];
+    for(int i = 0; i < CHANNELS; i++)
+    {
+      keys[i] = "pdp/channel " + i + " amps";
+    }
+  }
+
+  /** Read the PDP once and update the window. Run from a TaskScheduler task, never the robot loop. */
+  public void sample()
+  {
+    double[] row = history[next];
+    if(filled == history.length)
+    {
+      for(int i = 0; i < VALUES; i++)
+      {
+        sum[i] -= row[i];  //the oldest sample leaves the window
+      }
+    }
+    else
+    {
+      filled++;
+    }
+    for(int c = 0; c < CHANNELS; c++)
+    {
+      row[c] = panel.getCurrent(c);
+    }
+    row[TOTAL] = panel.getTotalCurrent();
+    row[VOLTAGE] = panel.getVoltage();
+    long now = System.nanoTime();
+    next = (next + 1) % history.length;
+
+    for(int i = 0; i < VALUES; i++)
+    {
+      sum[i] += row[i];
+      double low = row[i], high = row[i];
+      for(int h = 0; h < filled; h++)
+      {
+        low = Math.min(low, history[h][i]);
+        high = Math.max(high, history[h][i]);
+      }
+      computed.latest[i] = row[i];
+      computed.min[i] = low;
+      computed.max[i] = high;
+      computed.mean[i] = sum[i] / filled;
+    }
+    computed.sampleNanos = now;
+    computed.samples++;
+
+    long s = sequence;            //even, readers are on shared[0]
+    sequence = s + 1;             //move them to shared[1]
+    VarHandle.storeStoreFence();  //before overwriting shared[0]
+    copy(computed, shared[0]);
+    sequence = s + 2;             //back to shared[0], which is new now
+    VarHandle.storeStoreFence();
+    copy(computed, shared[1]);
+  }
+
+  /** Copy the latest readings and window statistics. Safe from any thread, never waits on sample(). */
+  public void read(Readings into)
+  {
+    while(true)
+    {
+      long s = sequence;
+      copy(shared[(int)(s & 1)], into);
+      VarHandle.loadLoadFence();  //finish the copy before checking nothing changed under it
+      if(sequence == s)
+      {
+        return;
+      }
+    }
+  }
+
+  private static void copy(Readings from, Readings to)
+  {
+    System.arraycopy(from.latest, 0, to.latest, 0, VALUES);
+    System.arraycopy(from.min,    0, to.min,    0, VALUES);
+    System.arraycopy(from.max,    0, to.max,    0, VALUES);
+    System.arraycopy(from.mean,   0, to.mean,   0, VALUES);
+    to.sampleNanos = from.sampleNanos;
+    to.samples = from.samples;
+  }
+
+  /** Put the totals and each channel's mean on the dashboard. Run from the "pdp" TaskScheduler task. */
+  public void publish()
+  {
+    read(reader);
+    SmartDashboard.putNumber("pdp/total amps",      reader.totalCurrent());
+    SmartDashboard.putNumber("pdp/total amps max",  reader.max(TOTAL));
+    SmartDashboard.putNumber("pdp/total amps mean", reader.mean(TOTAL));
+    SmartDashboard.putNumber("pdp/volts",           reader.voltage());
+    SmartDashboard.putNumber("pdp/volts min",       reader.min(VOLTAGE));
+    SmartDashboard.putNumber("pdp/volts mean",      reader.mean(VOLTAGE));
+    for(int c = 0; c < CHANNELS; c++)
+    {
+      SmartDashboard.putNumber(keys[c], reader.mean(c));
+    }
+  }
+}
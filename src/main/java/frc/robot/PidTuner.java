@@ -0,0 +1,301 @@
+package frc.robot;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Desktop tool that searches for arm and wrist PID settings in the simulator (ArmSim).
+ *
+ * Each candidate is P, I, D, max I output, output ramp rate and output filter for one joint.
+ * A candidate runs every pose to pose transition and is scored on settle time, overshoot,
+ * I windup (peak I term and integrated error) and final error, lower is better.
+ * Candidates are independent so they are scored in parallel on a ForkJoinPool, each worker
+ * with its own ArmSim and ArmWristControl. Every candidate sees the same pot noise so the
+ * scores compare fairly and a run is repeatable.
+ *
+ * The search is a random search over the ranges below followed by a round of small changes
+ * around the best few. The arm is tuned first with the current wrist settings, then the wrist
+ * with the new arm settings. The best settings are printed ready to paste into ArmWrist.
+ *   gradlew tunePids
+ *   gradlew tunePids -PtuneArgs="--joint wrist --candidates 400 --threads 4"
+ *
+ * The results are only as good as the model in ArmSim, so treat them as a starting point on the robot.
+ */
+public class PidTuner {
+  //----- search ranges ---------------------------------------------------------------------------
+  static final double P_MIN = 0.2,     P_MAX = 8.0;     //log scale
+  static final double I_MIN = 0.0005,  I_MAX = 0.05;    //log scale, or 0
+  static final double D_MIN = 0.05,    D_MAX = 5.0;     //log scale, or 0
+  static final double MAX_I_MIN = 0.05, MAX_I_MAX = 0.6;
+  static final double RAMP_MIN = 0.02, RAMP_MAX = 0.3;  //or 0 (off)
+  static final double FILTER_MIN = 0.05, FILTER_MAX = 0.6; //or 0 (off)
+  static final double CHANCE_OF_ZERO = 0.25;            //for I, D, ramp and filter
+
+  //----- score weights, a score is roughly "seconds" ---------------------------------------------
+  static final double NEVER_SETTLED_SCORE = 2 * ArmSim.TRANSITION_TIME;
+  static final double OVERSHOOT_WEIGHT    = 0.1;    //per SETTLE_BAND of overshoot
+  static final double WINDUP_WEIGHT       = 1.0;    //per unit of peak I term output
+  static final double ERROR_TIME_WEIGHT   = 0.002;  //per count*second of integrated error
+  static final double FINAL_ERROR_WEIGHT  = 0.5;    //per SETTLE_BAND of final error
+
+  static final int LEAF_SIZE = 4;  //candidates scored per fork join leaf
+  static final int TOP_KEPT = 8;   //best candidates the refine round changes
+  static final long NOISE_SEED = 6423;
+
+  static final int ARM = 0;
+  static final int WRIST = 1;
+  static final String[] JOINT_NAMES = {"ARM", "WRIST"};
+
+  /** One set of PID settings for one joint and its score. */
+  static class Gains {
+    final double p, i, d, maxI, ramp, filter;
+    double score = Double.NaN;
+
+    Gains(double p, double i, double d, double maxI, double ramp, double filter)
+    {
+      this.p = p;
+      this.i = i;
+      this.d = d;
+      this.maxI = maxI;
+      this.ramp = ramp;
+      this.filter = filter;
+    }
+  }
+
+  /** Scores candidates[from to to) for one joint, splitting the range until it is LEAF_SIZE or less. */
+  static class ScoreTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Gains[] candidates;
+    private final int from, to;
+    private final int joint;
+    private final Gains other;  //fixed settings for the joint not being tuned
+
+    ScoreTask(Gains[] candidates, int from, int to, int joint, Gains other)
+    {
+      this.candidates = candidates;
+      this.from = from;
+      this.to = to;
+      this.joint = joint;
+      this.other = other;
+    }
+
+    @Override
+    protected void compute()
+    {
+      if(to - from <= LEAF_SIZE)
+      {
+        for(int c = from; c < to; c++)
+        {
+          candidates[c].score = score(candidates[c], joint, other);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ScoreTask(candidates, from, middle, joint, other),
+                new ScoreTask(candidates, middle, to, joint, other));
+    }
+  }
+
+  /** Run every pose transition with the candidate on one joint and return the summed score. */
+  static double score(Gains candidate, int joint, Gains other)
+  {
+    Gains arm   = joint == ARM ? candidate : other;
+    Gains wrist = joint == ARM ? other : candidate;
+    ArmWristControl control = new ArmWristControl(arm.p,   arm.i,   arm.d,   arm.maxI,   arm.ramp,   arm.filter,
+                                                  wrist.p, wrist.i, wrist.d, wrist.maxI, wrist.ramp, wrist.filter);
+    ArmSim sim = new ArmSim(NOISE_SEED);
+    double total = 0;
+    for(int from = 0; from < ArmSim.ARM_POSES.length; from++)
+    {
+      for(int to = 0; to < ArmSim.ARM_POSES.length; to++)
+      {
+        if(from == to)
+        {
+          continue;
+        }
+        sim.runTransition(control, from, to, ArmSim.CONTROL_PERIOD, null);
+        total += score(joint == ARM ? sim.armMetrics : sim.wristMetrics);
+      }
+    }
+    return total;
+  }
+
+  static double score(ArmSim.Metrics m)
+  {
+    double settle = Double.isNaN(m.settleTime) ? NEVER_SETTLED_SCORE : m.settleTime;
+    return settle
+         + OVERSHOOT_WEIGHT   * m.overshoot / ArmSim.SETTLE_BAND
+         + WINDUP_WEIGHT      * m.peakITerm
+         + ERROR_TIME_WEIGHT  * m.iAbsErrorTime
+         + FINAL_ERROR_WEIGHT * Math.abs(m.finalError) / ArmSim.SETTLE_BAND;
+  }
+
+  //----- candidate generation ----------------------------------------------------------------------
+
+  static Gains randomGains(Random random)
+  {
+    return new Gains(logUniform(random, P_MIN, P_MAX),
+                     maybeZero(random, logUniform(random, I_MIN, I_MAX)),
+                     maybeZero(random, logUniform(random, D_MIN, D_MAX)),
+                     uniform(random, MAX_I_MIN, MAX_I_MAX),
+                     maybeZero(random, uniform(random, RAMP_MIN, RAMP_MAX)),
+                     maybeZero(random, uniform(random, FILTER_MIN, FILTER_MAX)));
+  }
+
+  /** Change each setting of g by up to about +-20%, staying inside the search ranges. */
+  static Gains nearby(Random random, Gains g)
+  {
+    return new Gains(clamp(g.p * jiggle(random), P_MIN, P_MAX),
+                     g.i == 0 ? 0 : clamp(g.i * jiggle(random), I_MIN, I_MAX),
+                     g.d == 0 ? 0 : clamp(g.d * jiggle(random), D_MIN, D_MAX),
+                     clamp(g.maxI * jiggle(random), MAX_I_MIN, MAX_I_MAX),
+                     g.ramp == 0 ? 0 : clamp(g.ramp * jiggle(random), RAMP_MIN, RAMP_MAX),
+                     g.filter == 0 ? 0 : clamp(g.filter * jiggle(random), FILTER_MIN, FILTER_MAX));
+  }
+
+  private static double logUniform(Random random, double min, double max)
+  {
+    return min * Math.pow(max / min, random.nextDouble());
+  }
+
+  private static double uniform(Random random, double min, double max)
+  {
+    return min + (max - min) * random.nextDouble();
+  }
+
+  private static double maybeZero(Random random, double value)
+  {
+    return random.nextDouble() < CHANCE_OF_ZERO ? 0 : value;
+  }
+
+  private static double jiggle(Random random)
+  {
+    return Math.exp(random.nextGaussian() * 0.2);
+  }
+
+  private static double clamp(double value, double min, double max)
+  {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  //----- search ------------------------------------------------------------------------------------
+
+  /**
+   * Random search plus one refine round for one joint.
+   * @return all scored candidates, best first. The current ArmWrist settings are always included.
+   */
+  static Gains[] tune(ForkJoinPool pool, int joint, Gains current, Gains other, int count, long seed)
+  {
+    Random random = new Random(seed);
+    Gains[] first = new Gains[count];
+    first[0] = current;
+    for(int c = 1; c < count; c++)
+    {
+      first[c] = randomGains(random);
+    }
+    pool.invoke(new ScoreTask(first, 0, first.length, joint, other));
+    Arrays.sort(first, (a, b) -> Double.compare(a.score, b.score));
+
+    Gains[] second = new Gains[count / 2];
+    for(int c = 0; c < second.length; c++)
+    {
+      second[c] = nearby(random, first[c % Math.min(TOP_KEPT, first.length)]);
+    }
+    pool.invoke(new ScoreTask(second, 0, second.length, joint, other));
+
+    Gains[] all = Arrays.copyOf(first, first.length + second.length);
+    System.arraycopy(second, 0, all, first.length, second.length);
+    Arrays.sort(all, (a, b) -> Double.compare(a.score, b.score));
+    return all;
+  }
+
+  static Gains currentArm()
+  {
+    return new Gains(ArmWrist.P_ARM, ArmWrist.I_ARM, ArmWrist.D_ARM,
+                     ArmWrist.MAX_I_ARM, ArmWrist.RAMP_ARM, ArmWrist.FILTER_ARM);
+  }
+
+  static Gains currentWrist()
+  {
+    return new Gains(ArmWrist.P_WRIST, ArmWrist.I_WRIST, ArmWrist.D_WRIST,
+                     ArmWrist.MAX_I_WRIST, ArmWrist.RAMP_WRIST, ArmWrist.FILTER_WRIST);
+  }
+
+  public static void main(String... args)
+  {
+    String jointArg = "both";
+    int count = 400;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = 6423;
+    for(int i = 0; i < args.length; i++)
+    {
+      if(args[i].equals("--joint") && i + 1 < args.length)
+      {
+        jointArg = args[++i];
+      }
+      else if(args[i].equals("--candidates") && i + 1 < args.length)
+      {
+        count = Math.max(2, Integer.parseInt(args[++i]));
+      }
+      else if(args[i].equals("--threads") && i + 1 < args.length)
+      {
+        threads = Math.max(1, Integer.parseInt(args[++i]));
+      }
+      else if(args[i].equals("--seed") && i + 1 < args.length)
+      {
+        seed = Long.parseLong(args[++i]);
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    Gains arm = currentArm();
+    Gains wrist = currentWrist();
+    long startNanos = System.nanoTime();
+    System.out.printf("%d candidates + %d refined per joint on %d threads\n", count, count / 2, threads);
+    if(!jointArg.equals("wrist"))
+    {
+      arm = report(tune(pool, ARM, arm, wrist, count, seed), ARM, arm);
+    }
+    if(!jointArg.equals("arm"))
+    {
+      wrist = report(tune(pool, WRIST, wrist, arm, count, seed + 1), WRIST, wrist);
+    }
+    pool.shutdown();
+    System.out.printf("took %.1f sec\n", (System.nanoTime() - startNanos) / 1.0e9);
+    System.out.println();
+    System.out.println("//----- paste into ArmWrist ------");
+    printConstants(ARM, arm);
+    printConstants(WRIST, wrist);
+  }
+
+  /** Print the top few and how the current settings did. @return the best */
+  private static Gains report(Gains[] ranked, int joint, Gains current)
+  {
+    System.out.println();
+    System.out.println(JOINT_NAMES[joint] + "   score |       P        I        D    maxI    ramp  filter");
+    for(int r = 0; r < Math.min(5, ranked.length); r++)
+    {
+      printRow(String.format("#%d", r + 1), ranked[r]);
+    }
+    printRow("now", current);
+    return ranked[0];
+  }
+
+  private static void printRow(String label, Gains g)
+  {
+    System.out.printf("%-4s %8.2f | %7.3f %8.5f %8.4f %7.3f %7.3f %7.3f\n",
+                      label, g.score, g.p, g.i, g.d, g.maxI, g.ramp, g.filter);
+  }
+
+  private static void printConstants(int joint, Gains g)
+  {
+    String name = JOINT_NAMES[joint];
+    System.out.printf("  static final double P_%s = %.4g;\n", name, g.p);
+    System.out.printf("  static final double I_%s = %.4g;\n", name, g.i);
+    System.out.printf("  static final double D_%s = %.4g;\n", name, g.d);
+    System.out.printf("  static final double MAX_I_%s  = %.3f;\n", name, g.maxI);
+    System.out.printf("  static final double RAMP_%s   = %.3f;\n", name, g.ramp);
+    System.out.printf("  static final double FILTER_%s = %.3f;\n", name, g.filter);
+  }
+}
@@ -28,11 +28,16 @@ public class Pneumatics
   private double climbReturnCounter = CLIMB_RETURN_TIME;
   HardwareMap hMap; 
   OurBots  selectedBots_pnuematics_local; //copy of constructor argument if needed by class methods 
-  Solenoid pneumatic_hatch_pull;  //-
-  Solenoid pneumatic_hatch_push;  //-
-  Solenoid pneumatic_climb_extend;  //-
-  Solenoid pneumatic_climb_retract;
-  PowerDistributionPanel panel;   // to check for motor current. 
+  //these are called every loop, the cache only passes changes on to Solenoid (see OutputCache)
+  OutputCache.CachedSolenoid pneumatic_hatch_pull;  //-
+  OutputCache.CachedSolenoid pneumatic_hatch_push;  //-
+  OutputCache.CachedSolenoid pneumatic_climb_extend;  //-
+  OutputCache.CachedSolenoid pneumatic_climb_retract;
+  Compressor compressor;            //runs on its own from the PCM pressure switch unless paused
+  private boolean compressorPaused = false;
+  private boolean climbing = false;          //climb() until retract(), the extend solenoid is only on while the POV is held
+  //motor current: read Robot.pdp (PdpSampler), the PDP itself is too slow to ask from the loop
+  TelemetryLog telemetry = TelemetryLog.get(); //these used to be println's that blocked the loop
 
   public Pneumatics(OurBots selectedBot)//constructor
   {
@@ -48,12 +53,14 @@ public class Pneumatics
     case WM2019_BAG:
     default:
       //Compressor code is handled internally. Make Solenoid objects and features from there. 
-      pneumatic_hatch_pull = new Solenoid(hMap.canID_PCM, hMap.pnuematic_hatch_pull);
-      pneumatic_hatch_push = new Solenoid(hMap.canID_PCM, hMap.pnuematic_hatch_push); 
+      OutputCache outputs = OutputCache.get();
+      compressor = new Compressor(hMap.canID_PCM);
+      pneumatic_hatch_pull = outputs.wrap("hatchPull", new Solenoid(hMap.canID_PCM, hMap.pnuematic_hatch_pull));
+      pneumatic_hatch_push = outputs.wrap("hatchPush", new Solenoid(hMap.canID_PCM, hMap.pnuematic_hatch_push)); 
       
       // instantiating pneumatic climb
-       pneumatic_climb_extend = new Solenoid(hMap.canID_PCM, hMap.pneumatic_climb_extend);
-      pneumatic_climb_retract = new Solenoid(hMap.canID_PCM, hMap.pneumatic_climb_retract); 
+       pneumatic_climb_extend = outputs.wrap("climbExtend", new Solenoid(hMap.canID_PCM, hMap.pneumatic_climb_extend));
+      pneumatic_climb_retract = outputs.wrap("climbRetract", new Solenoid(hMap.canID_PCM, hMap.pneumatic_climb_retract)); 
        
       
       
@@ -100,7 +107,7 @@ public class Pneumatics
     pneumatic_hatch_push.set(true);
     pneumatic_hatch_push.startPulse();
     hatchReturnConter = HATCH_RETURN_TIME; //hold value at max
-    System.out.println("hatch push");
+    telemetry.log(TelemetryLog.TYPE_PNEUMATICS, TelemetryLog.PNEUMATIC_HATCH_PUSH);
   }
   public void hatchPull()  
   {
@@ -124,8 +131,9 @@ public class Pneumatics
     pneumatic_climb_retract.set(false);  
     pneumatic_climb_extend.set(true);
     pneumatic_climb_extend.startPulse();
+    climbing = true;
     //hold value at max
-    System.out.println("climbing");
+    telemetry.log(TelemetryLog.TYPE_PNEUMATICS, TelemetryLog.PNEUMATIC_CLIMB);
   }
   public void retract()  
   {
@@ -133,11 +141,27 @@ public class Pneumatics
       pneumatic_climb_extend.set(false);
       pneumatic_climb_retract.set(true);
       pneumatic_climb_retract.startPulse();
-     System.out.println("hatch Pull");
-
+      climbing = false;
+      telemetry.log(TelemetryLog.TYPE_PNEUMATICS, TelemetryLog.PNEUMATIC_RETRACT);
   }
     
     
+  /** Stop the compressor to save current, or let the PCM run it again. setClosedLoopControl is only called on a change. */
+  public void pauseCompressor(boolean pause)
+  {
+    if(compressor != null && pause != compressorPaused)
+    {
+      compressor.setClosedLoopControl(!pause);
+      compressorPaused = pause;
+    }
+  }
+
+  /** @return true from climb() until retract(), while the robot is up on the climb cylinders */
+  public boolean isClimbing()
+  {
+    return climbing;
+  }
+
   //place holder method... add 5 more if needed
   public void setSolenoidPulseTimes(double duration) 
   {
@@ -0,0 +1,180 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Keeps the whole robot under a current limit so the roboRIO does not brown out when the drive,
+ * the arm, the intake and the compressor all pull at once (pushing matches, climbing).
+ *
+ * It works from the total current and battery voltage in the PdpSampler readings. The HardwareMap
+ * PDP_* channels are still placeholders, so nothing here depends on per motor currents.
+ * When the total goes over currentLimit, or the voltage sags below MIN_VOLTAGE, the excess is
+ * added to shedAmps. When there is room again shedAmps is given back at RECOVER_AMPS_PER_SECOND.
+ * shedAmps is taken out of the subsystems' budgets lowest priority first. Each subsystem's budget
+ * starts at its PEAK_AMPS and never goes below MIN_SCALE of it. Each scale is budget / PEAK_AMPS
+ * and multiplies that subsystem's output. The compressor can only be on or off, so it is paused
+ * as soon as any of its budget is taken. A subsystem marked not driven (setDriven) is skipped, since
+ * scaling an output nobody sends saves nothing. shedAmps never goes over what the driven subsystems
+ * can give up, so a long overload does not wind it up past that and delay the recovery.
+ * The priority order follows the robot mode, see *_PRIORITY.
+ *
+ * Time only moves with PDP samples, never the clock, so MatchReplay gets the same scales from the
+ * recorded TYPE_POWER records. Robot loop thread only.
+ */
+public class PowerManager {
+  static final int DRIVE      = 0;
+  static final int ARM        = 1;
+  static final int INTAKE     = 2;
+  static final int COMPRESSOR = 3;
+  static final String[] NAMES = {"drive", "arm", "intake", "compressor"};
+
+  //highest priority first
+  static final int[] AUTONOMOUS_PRIORITY = {ARM, DRIVE, INTAKE, COMPRESSOR};  //placing the preload
+  static final int[] TELEOP_PRIORITY     = {DRIVE, ARM, INTAKE, COMPRESSOR};
+  static final int[] CLIMB_PRIORITY      = {DRIVE, COMPRESSOR, ARM, INTAKE};  //climb cylinders extended
+
+  static final double[] PEAK_AMPS = {160, 80, 30, 12};         //@@@ what each subsystem pulls flat out: breakers, compressor spec
+  static final double[] MIN_SCALE = {0.4, 0.7, 0, 0};          //@@@ the arm has to keep holding itself up
+  static final double CURRENT_LIMIT   = 200;   //@@@ amps, total for the robot
+  static final double MIN_VOLTAGE     = 8.0;   //@@@ the roboRIO browns out at 6.8V
+  static final double AMPS_PER_VOLT   = 40;    //@@@ 1 / (battery + wiring resistance), amps to shed per volt of sag
+  static final double SHED_GAIN       = 0.5;   //part of the excess shed per sample, the motors take a sample or two to respond
+  static final double RECOVER_AMPS_PER_SECOND = 100;
+  static final double NO_READING_VOLTS = 1.0;  //a PDP that does not answer reads 0V
+
+  final double currentLimit;
+  private final PdpSampler.Readings readings = new PdpSampler.Readings();
+  private int[] priority = TELEOP_PRIORITY;
+  private boolean autonomous = false;
+  private final boolean[] driven = {true, true, true, true};
+  private double maxShedAmps = sheddableAmps(driven);
+  //----- inputs of the last update, from the PDP or loaded by MatchReplay -----
+  double totalCurrent = 0;
+  double voltage = 0;
+  long samples = 0;            //PdpSampler samples so far, 0 before the first
+  private long lastSamples = 0;
+  //----- results of the last update -----
+  double shedAmps = 0;
+  final double[] scale = {1, 1, 1, 1};
+  boolean compressorPaused = false;
+  private final String[] keys = new String[NAMES.length];  //built once so publishing does not concatenate
+
+  /** The robot's limit, CURRENT_LIMIT. */
+  public PowerManager()
+  {
+    this(CURRENT_LIMIT);
+  }
+
+  public PowerManager(double currentLimit)
+  {
+    this.currentLimit = currentLimit;
+    for(int i = 0; i < NAMES.length; i++)
+    {
+      keys[i] = "power/" + NAMES[i] + " budget amps";
+    }
+  }
+
+  /** Use the autonomous or teleop priority order. Call from the mode inits. */
+  public void setAutonomous(boolean autonomous)
+  {
+    this.autonomous = autonomous;
+  }
+
+  /** Mark a subsystem whose output is not driven on this robot, so none of shedAmps is counted as taken from it. */
+  public void setDriven(int subsystem, boolean isDriven)
+  {
+    driven[subsystem] = isDriven;
+    maxShedAmps = sheddableAmps(driven);
+  }
+
+  /** @return amps the driven subsystems can give up between them, the most shedAmps can be */
+  static double sheddableAmps(boolean[] driven)
+  {
+    double amps = 0;
+    for(int s = 0; s < PEAK_AMPS.length; s++)
+    {
+      amps += driven[s] ? (1 - MIN_SCALE[s]) * PEAK_AMPS[s] : 0;
+    }
+    return amps;
+  }
+
+  /** Take the inputs for the next update() from the sampler's cached readings. */
+  void read(PdpSampler pdp)
+  {
+    pdp.read(readings);
+    totalCurrent = readings.totalCurrent();
+    voltage = readings.voltage();
+    samples = readings.samples;
+  }
+
+  /** Record the inputs and the result of this loop as a TelemetryLog TYPE_POWER record. */
+  void log(TelemetryLog telemetry)
+  {
+    telemetry.log(TelemetryLog.TYPE_POWER, totalCurrent, voltage, samples, shedAmps);
+  }
+
+  /** The reverse of log(): take the inputs for the next update() from a TYPE_POWER record. */
+  void load(double[] fields)
+  {
+    totalCurrent = fields[0];
+    voltage = fields[1];
+    samples = (long)fields[2];
+  }
+
+  /**
+   * Work out the scales. Cheap, call every loop after read() or load().
+   * @param climbing the climb cylinders are extended
+   */
+  public void update(boolean climbing)
+  {
+    priority = climbing ? CLIMB_PRIORITY : autonomous ? AUTONOMOUS_PRIORITY : TELEOP_PRIORITY;
+    if(samples != lastSamples && voltage > NO_READING_VOLTS)
+    {
+      double dt = (samples - lastSamples) * PdpSampler.SAMPLE_PERIOD;
+      lastSamples = samples;
+      //what is drawn now already has shedAmps taken off, so the excess comes off on top of it
+      double excess = Math.max(totalCurrent - currentLimit, (MIN_VOLTAGE - voltage) * AMPS_PER_VOLT);
+      if(excess > 0)
+      {
+        shedAmps += excess * SHED_GAIN;
+      }
+      else
+      {
+        shedAmps -= Math.min(-excess, RECOVER_AMPS_PER_SECOND * dt);
+      }
+      shedAmps = Math.max(0, Math.min(maxShedAmps, shedAmps));
+    }
+    double remaining = shedAmps;
+    for(int i = priority.length - 1; i >= 0; i--)
+    {
+      int s = priority[i];
+      double cut = driven[s] ? Math.min(remaining, (1 - MIN_SCALE[s]) * PEAK_AMPS[s]) : 0;
+      remaining -= cut;
+      scale[s] = 1 - cut / PEAK_AMPS[s];
+    }
+    compressorPaused = scale[COMPRESSOR] < 1;
+  }
+
+  /** @return the subsystem's output multiplier [MIN_SCALE to 1.0] */
+  public double scale(int subsystem)
+  {
+    return scale[subsystem];
+  }
+
+  /** @return amps the subsystem may draw now */
+  public double budget(int subsystem)
+  {
+    return scale[subsystem] * PEAK_AMPS[subsystem];
+  }
+
+  /** Put the budgets on the dashboard. Run from the "power" TaskScheduler task. */
+  public void publish()
+  {
+    SmartDashboard.putNumber("power/shed amps", shedAmps);
+    for(int i = 0; i < NAMES.length; i++)
+    {
+      SmartDashboard.putNumber(keys[i], budget(i));
+    }
+    SmartDashboard.putBoolean("power/compressor paused", compressorPaused);
+  }
+}
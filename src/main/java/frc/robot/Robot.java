@@ -35,17 +35,46 @@ public class Robot extends TimedRobot {
   }
   final OurBots selectedBot = OurBots.WM2019_BAG; //set the bot to the one you are working with
 
-  private static final String kDefaultAuto = "Default";
-  private static final String kCustomAuto = "My Auto";
-  private String m_autoSelected;
+  static final String kDefaultAuto = "Default";
+  static final String kCustomAuto = "My Auto";
+  String m_autoSelected;
   private final SendableChooser<String> m_chooser = new SendableChooser<>();
   private boolean initDone = false; //allows not to reset to starting position after auto init
   Joystick        joy       = new Joystick(0);     //popular and generic, IZT brand joystick
+  InputSnapshot   input     = new InputSnapshot(); //joy and the pots as of the top of linkPack, read this not joy
   HardwareMap     hMap      = new HardwareMap();   //This defines what inputs and outputs are connectedd to roborio
   DriveTrain      dTrain    = new DriveTrain(selectedBot);
   ArmWrist        armWrist  = new ArmWrist(selectedBot);
   Pneumatics      air       = new Pneumatics(selectedBot);
   Intake          intake    = new Intake();
+  PdpSampler      pdp       = new PdpSampler(hMap.canID_PDP, PdpSampler.SAMPLE_PERIOD); //read it with pdp.read(), never the PDP
+  PowerManager    power     = new PowerManager();  //current budgets, see linkPower()
+  VisionMailbox   visionMailbox = new VisionMailbox(); //latest vision result, filled by the vision thread
+  VisionExecutor  vision;                              //null unless VISION_ON
+  //Nothing reads visionMailbox yet, so the vision thread would only take CPU from the loop and the PID thread.
+  //Turn this on together with the control that steers from it, which should call visionMailbox.latest()
+  //once at the top of linkPack
+  static final boolean VISION_ON = false; //@@@
+  //----- every loop's input and commanded outputs go to the TelemetryLog so a match can be replayed ------
+  TelemetryLog    telemetry = TelemetryLog.get();
+  final double[]  outputs   = new double[TelemetryLog.MAX_FIELDS]; //filled by captureOutputs()
+  boolean         replaying = false; //set by MatchReplay, which loads input itself and records nothing
+  //----- loop timing, published to the dashboard once a second. See LoopTiming ---------
+  final double    BUDGET    = LoopTiming.LOOP_BUDGET_SECONDS;
+  LoopTiming      timing    = new LoopTiming();
+  LatencyHistogram timeLoop        = timing.add("loop",        BUDGET); //mode periodic start to robotPeriodic end
+  LatencyHistogram timeAuto        = timing.add("autonomous",  BUDGET);
+  LatencyHistogram timeTeleop      = timing.add("teleop",      BUDGET);
+  LatencyHistogram timeTest        = timing.add("test",        BUDGET);
+  LatencyHistogram timeDisabled    = timing.add("disabled",    BUDGET);
+  LatencyHistogram timeRobot       = timing.add("robot",       BUDGET);
+  LatencyHistogram timeIntake      = timing.add("intake",      BUDGET);
+  LatencyHistogram timeDrive       = timing.add("drive",       BUDGET);
+  LatencyHistogram timePneumatics  = timing.add("pneumatics",  BUDGET);
+  LatencyHistogram timeArmTargets  = timing.add("armTargets",  BUDGET);
+  long            loopStart = 0; //set at the start of each mode periodic
+  //----- work that runs at its own rate, see TaskScheduler --------
+  TaskScheduler   scheduler = new TaskScheduler(timing);
  
   /**
    * This function is run when the robot is first started up and should be
@@ -56,30 +85,42 @@ public class Robot extends TimedRobot {
     m_chooser.setDefaultOption("Default Auto", kDefaultAuto);//
     m_chooser.addOption("My Auto", kCustomAuto);
     SmartDashboard.putData("Auto choices", m_chooser);
-  CameraServer.getInstance().startAutomaticCapture();
+    UsbCamera camera = CameraServer.getInstance().startAutomaticCapture();
+    initPositions();
+    //Vision runs on its own thread and drops stale frames. Results wait in visionMailbox
+    if(VISION_ON)
+    {
+      vision = new VisionExecutor(CameraServer.getInstance().getVideo(camera), new LPipeline(), visionMailbox);
+      vision.start();
+    }
+    //The arm and wrist PIDs run on a real time thread so they keep their rate when the loop is slow.
+    //linkJoyStickToArmWrist() still sets the targets in the loop and hands them over with publishTargets().
+    scheduler.add("armPids", ArmWrist.PID_PERIOD, ArmWrist.PID_PRIORITY, () -> {
+      if(isEnabled() && !isTest())
+      {
+        armWrist.processPIDsAndDriveMotors(); //drives the motors to match the targets using PIDs
+      }
+    });
+    scheduler.add("dashboard", 1.0, TaskScheduler.MAIN_LOOP, timing::publish);
+    scheduler.add("canBus",    1.0, TaskScheduler.MAIN_LOOP, CanBusMonitor.get()::publish);
+    scheduler.add("outputs",   1.0, TaskScheduler.MAIN_LOOP, OutputCache.get()::publish);
+    scheduler.add("pdpSample", pdp.period, PdpSampler.PRIORITY, pdp::sample); //CAN reads, kept out of the loop
+    scheduler.add("pdp",       1.0, TaskScheduler.MAIN_LOOP, pdp::publish);
+    scheduler.add("power",     1.0, TaskScheduler.MAIN_LOOP, power::publish);
+    scheduler.add("potFaults", 1.0, TaskScheduler.MAIN_LOOP, armWrist::reportPotFaults);
+    scheduler.add("telemetry", 1.0, TaskScheduler.MAIN_LOOP, telemetry::publish);
+    scheduler.start();
+  }
+
+  /** The part of robotInit that needs no camera or threads, MatchReplay runs it too. */
+  void initPositions()
+  {
     armWrist.armPositionTarget = armWrist.ARM_POT_INITIAL;//starting position 
     armWrist.wristPositionTarget = armWrist.WRIST_POT_INITIAL; 
+    armWrist.publishTargets();
     armWrist.resetPids();
     air.retract();
-    /*
-    VisionThread vThread;
-    UsbCamera camera = new UsbCamera("Camera 2", 0);
-    //VisionPipeline l = new LPipeline();
-   
-    //MjpegServer server = new MjpegServer("new server",6423);
-    CvSource source = CameraServer.getInstance().putVideo("new source", 300, 300);
-    vThread = new VisionThread(camera,new LPipeline(), pipeline -> {
-   //CvSink s = CameraServer.getInstance().getVideo();
-        
-          System.out.println("hello vision");
-          source.putFrame(pipeline.desaturateOutput());
-        
-  });
-  vThread.start();
-  */
-  
-  
-  
+    power.setDriven(PowerManager.ARM, armWrist.drivesArm());
   }
 
   /**
@@ -92,6 +133,19 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void robotPeriodic() {
+    long start = System.nanoTime();
+    scheduler.runDue();
+    long end = timeRobot.recordSince(start);
+    if(loopStart != 0)
+    {
+      timeLoop.record(end - loopStart);
+    }
+  }
+
+  @Override
+  public void disabledPeriodic() {
+    loopStart = System.nanoTime();
+    timeDisabled.recordSince(loopStart);
   }
   /**
    * This autonomous (along with the chooser code above) shows how to select
@@ -106,12 +160,18 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void autonomousInit() {
-    m_autoSelected = m_chooser.getSelected();
+    if(!replaying)
+    {
+      m_autoSelected = m_chooser.getSelected(); //MatchReplay sets it from the log
+      telemetry.log(TelemetryLog.TYPE_MODE, TelemetryLog.MODE_AUTONOMOUS, kCustomAuto.equals(m_autoSelected) ? 1 : 0);
+    }
     // m_autoSelected = SmartDashboard.getString("Auto Selector", kDefaultAuto);
     System.out.println("Auto selected: " + m_autoSelected);
     System.out.printf("autonomousInit\n"); 
+    power.setAutonomous(true);
     armWrist.armPositionTarget = armWrist.ARM_POSE_1;//starting position 
     armWrist.wristPositionTarget = armWrist.WRIST_ARM_POSE_1;
+    armWrist.publishTargets();
      
     //** All the needed init was done in robotInit */
   }
@@ -121,6 +181,7 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void autonomousPeriodic() {
+    loopStart = System.nanoTime();
     switch (m_autoSelected) {
       case kCustomAuto:
         // Put custom auto code here
@@ -134,11 +195,17 @@ public class Robot extends TimedRobot {
                     //Link the joystick to the hardware.
         break;
     }
+    timeAuto.recordSince(loopStart);
   }
 
   @Override
   public void teleopInit() {
     System.out.printf("teleopInit\n"); 
+    power.setAutonomous(false);
+    if(!replaying)
+    {
+      telemetry.log(TelemetryLog.TYPE_MODE, TelemetryLog.MODE_TELEOP, 0);
+    }
     /**   All the init we needed was done in roboInit. */
   }
   /**
@@ -146,7 +213,9 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void teleopPeriodic() {
+    loopStart = System.nanoTime();
     linkPack();//link the joystick to the hardware
+    timeTeleop.recordSince(loopStart);
   }
 
   /**
@@ -154,30 +223,84 @@ public class Robot extends TimedRobot {
    */
   @Override
   public void testPeriodic() {
+    loopStart = System.nanoTime();
+    timeTest.recordSince(loopStart);
   }
 
   /** a handfull of methods that are easier to read when separate but usually called together  */
-  private void linkPack()
+  void linkPack()
   {
+    long mark = System.nanoTime();        //each recordSince returns the time it was called so phases chain
+    if(!replaying)
+    {
+      input.capture(joy, armWrist);       //read every input once so everything below sees the same ones
+      power.read(pdp);                    //cached by the sampler thread, no CAN reads here
+    }
+    linkPower();                          //before anything is driven so the scales apply this loop
+    if(!replaying)
+    {
+      power.log(telemetry);               //MatchReplay needs the power record ahead of the input
+      input.log(telemetry);
+    }
     linkJoyStickToIntake();
+    mark = timeIntake.recordSince(mark);
     linkJoyStickToDrive();
+    mark = timeDrive.recordSince(mark);
     linkJoyStickToPneumatics();
-    linkJoyStickToArmWrist();             //sets the target 
-    armWrist.processPIDsAndDriveMotors(); //drives the motors to match the targets using PIDs
+    mark = timePneumatics.recordSince(mark);
+    linkJoyStickToArmWrist();             //sets the targets, the PID thread drives the motors to them
+    armWrist.publishTargets();
+    timeArmTargets.recordSince(mark);
+    captureOutputs();
+    if(!replaying)
+    {
+      telemetry.log(TelemetryLog.TYPE_OUTPUT, outputs[0], outputs[1], outputs[2], outputs[3], outputs[4],
+                    outputs[5], outputs[6], outputs[7], outputs[8], outputs[9]);
+    }
+  }
+
+  /** What this loop commanded, into outputs in TelemetryLog.FIELD_NAMES[TYPE_OUTPUT] order. */
+  void captureOutputs()
+  {
+    outputs[0] = intake.intakeMotor.commanded();
+    outputs[1] = dTrain.leftOutput.commanded();
+    outputs[2] = dTrain.rightOutput.commanded();
+    outputs[3] = isOn(air.pneumatic_hatch_pull);
+    outputs[4] = isOn(air.pneumatic_hatch_push);
+    outputs[5] = isOn(air.pneumatic_climb_extend);
+    outputs[6] = isOn(air.pneumatic_climb_retract);
+    outputs[7] = armWrist.armPositionTarget;
+    outputs[8] = armWrist.wristPositionTarget;
+    outputs[9] = armWrist.wristDrive;
+  }
+
+  private static double isOn(OutputCache.CachedSolenoid solenoid)
+  {
+    return solenoid != null && solenoid.isOn() ? 1 : 0; //the peanut has no pneumatics
   }
   
+  /** Hand out the current budgets. Goes by the climb state the pneumatics were left in last loop. */
+  public void linkPower()
+  {
+    power.update(air.isClimbing());
+    dTrain.powerScale = power.scale(PowerManager.DRIVE);
+    intake.powerScale = power.scale(PowerManager.INTAKE);
+    armWrist.armPowerScale = power.scale(PowerManager.ARM);
+    air.pauseCompressor(power.compressorPaused);
+  }
+
   public void linkJoyStickToIntake()
   {
     //One of team's joystick controllers changed from 0.5 to 1.0 not 0.0 to 1.0 when trigger was pressed
     //Russ' controller changed from 0.0 to 1.0
     //So... 0.7 works for both cases
-    if(joy.getRawAxis(hMap.axisTriggerIntakeIn) > 0.7)
+    if(input.axis(hMap.axisTriggerIntakeIn) > 0.7)
     {                               
       intake.driveMotorIn();//scale in intake class
     }
     else
     {
-      if(joy.getRawAxis(hMap.axisTriggerIntakeOut) > 0.7)
+      if(input.axis(hMap.axisTriggerIntakeOut) > 0.7)
       {
         intake.driveMotorOut();//scale in intake class
       }
@@ -189,34 +312,34 @@ public class Robot extends TimedRobot {
   }
   public void linkJoyStickToDrive()
   {
-    dTrain.drive(joy.getRawAxis(hMap.axisTankDriveLeft),joy.getRawAxis(hMap.axisTankDriveRight)); //left and right veritcal axis
+    dTrain.drive(input.axis(hMap.axisTankDriveLeft),input.axis(hMap.axisTankDriveRight)); //left and right veritcal axis
   }
   public void linkJoyStickToArmWrist()
   {
-    armWrist.upDownManualArm  (joy.getRawButton(hMap.buttonArmWristManualUp), joy.getRawButton(hMap.buttonArmWristManualDown));
-    armWrist.upDownManualWrist(joy.getRawButton(hMap.buttonWristManualUp),    joy.getRawButton(hMap.buttonWristManualDown),joy.getRawButton(hMap.buttonArmWristCycleUp));
-    //armWrist.upDownCycle      (joy.getRawButton(hMap.buttonArmWristCycleUp),  joy.getRawButton(hMap.buttonArmWristCycleDown)); 
+    armWrist.upDownManualArm  (input.button(hMap.buttonArmWristManualUp), input.button(hMap.buttonArmWristManualDown));
+    armWrist.upDownManualWrist(input.button(hMap.buttonWristManualUp),    input.button(hMap.buttonWristManualDown),input.button(hMap.buttonArmWristCycleUp));
+    //armWrist.upDownCycle      (input.button(hMap.buttonArmWristCycleUp),  input.button(hMap.buttonArmWristCycleDown)); 
   }
   public void linkJoyStickToPneumatics()
   {
     //---- Control the hatch pistons. ------------------
-    if(joy.getPOV() == (hMap.povHatchPush) )
+    if(input.pov() == (hMap.povHatchPush) )
     {
       air.hatchPush(); //if button pushed, push hatch
-    //  armWrist.upDownManualWrist(joy.getPOV() == 270,false, false);///why?
+    //  armWrist.upDownManualWrist(input.pov() == 270,false, false);///why?
     }
     else
     {
       air.hatchPull(); //else pull it in for 1 second
     }
     
-    if(joy.getPOV() == (hMap.povClimbExtend))
+    if(input.pov() == (hMap.povClimbExtend))
     {
       air.climb();
     }
     else
     {
-      if(joy.getPOV() == (hMap.povClimbRetract))
+      if(input.pov() == (hMap.povClimbRetract))
         air.retract();
       else
         air.climbExtendOff();
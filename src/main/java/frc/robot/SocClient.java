@@ -1,63 +1,168 @@
 package frc.robot;
 import java.io.*;
 import java.net.*;
-import java.util.concurrent.Semaphore;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Sends strings to a UDP server from its own thread.
+ * Callers hand messages over with send(). It never blocks. If the queue is full the message is
+ * dropped and counted. The sender thread is woken right away, so there is no polling delay and
+ * messages sent close together are all delivered instead of overwriting each other.
+ * The socket is opened and the address resolved once, and the send buffer is reused.
+ */
 public class SocClient extends Thread {
-   // private DatagramSocket socket;
-    private String addr;
-    private int port;
-    private String string2Send = "hello";
-    private boolean sendRequest = false;
-    private int stringLenCopy = 0;   //string length not working during send - try a copy
-    
+    private static final int QUEUE_SIZE = 64;          //must be a power of 2
+    private static final int MAX_PACKET_BYTES = 1024;
+    private final String addr;
+    private final int port;
+    private final SendQueue queue = new SendQueue(QUEUE_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_BYTES);
+    private volatile boolean running = true;
+    private volatile long sentCount = 0;                //only the sender thread writes this
+    private final AtomicLong droppedCount = new AtomicLong(); //queue full, any caller can bump it
+    private volatile long errorCount = 0;               //send failed, e.g. nobody listening on the port
+
     public SocClient(String inAddr, int inPort)
     {
-    //    try{
-            addr = inAddr;
-    //        socket = new DatagramSocket(inPort);
-            port = inPort;
-    //    }
-    //    catch(IOException ex)
-    //   {
-    //    }
+        super("SocClient");
+        addr = inAddr;
+        port = inPort;
+        setDaemon(true);
     }
+
+    /** Queue a string to be sent. Safe to call from any thread, never blocks. */
     public void send(String str)
     {
-        stringLenCopy = str.length();
-        string2Send =str;
-        sendRequest=true;
+        if(queue.offer(str))
+        {
+            LockSupport.unpark(this); //wake the sender now rather than on its next poll
+        }
+        else
+        {
+            droppedCount.incrementAndGet();
+        }
+    }
+
+    /** Stop the sender thread. Anything still queued is not sent. */
+    public void shutdown()
+    {
+        running = false;
+        LockSupport.unpark(this);
     }
-    //todo: don't create and close socket every packet - keep it open
-    public void run(){       
-        try{                //This try needed for new DatagramSocket();
-            while(true){                
-                if(sendRequest)//wait for send request
+
+    public long getSentCount()    { return sentCount; }
+    public long getDroppedCount() { return droppedCount.get(); }
+    public long getErrorCount()   { return errorCount; }
+
+    public void run(){
+        try(DatagramChannel channel = DatagramChannel.open())
+        {
+            channel.connect(new InetSocketAddress(addr, port)); //resolve the host once
+            while(running)
+            {
+                String str = queue.poll();
+                if(str == null)
                 {
-                    DatagramSocket clientSocket = new DatagramSocket();
-                    InetAddress IPAddress = InetAddress.getByName(addr);
-
-                    byte[] sendData = new byte[1024];
-                    sendData = (string2Send + "*").getBytes();
-                  //  System.err.println("len " + string2Send.length());
-                  //  sendData[sendData.length-1] = '*';//hack together a sting term to solve issue on server end
-                    DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, IPAddress, port);
-                  //  System.out.println("len =  " + sendData.length);                     
-                    clientSocket.send(sendPacket);
-              //      System.out.println("data sent to server ");
-                    clientSocket.close();
-                    sendRequest=false; //clear send request
+                    LockSupport.park(this); //wait for send() to unpark us
+                    continue;
                 }
-                try{
-                    Thread.sleep(10);//don't waste CPU
+                fillSendBuffer(str);
+                try
+                {
+                    channel.write(sendBuffer);
+                    sentCount++;
                 }
-                catch(Exception e){
+                catch(IOException ex) //PortUnreachableException if the server is not up yet
+                {
+                    errorCount++;
                 }
             }
         }
         catch(IOException ex)
         {
+            System.out.println("socClient could not open socket to " + addr + ":" + port + " " + ex);
         }
         System.out.println("socClient exiting Run");
     }
-}
\ No newline at end of file
+
+    /** Copy the string into the reusable buffer without creating garbage. Too long strings are cut. */
+    private void fillSendBuffer(String str)
+    {
+        sendBuffer.clear();
+        int len = Math.min(str.length(), MAX_PACKET_BYTES - 1); //leave room for the terminator
+        for(int i = 0; i < len; i++)
+        {
+            char c = str.charAt(i);
+            sendBuffer.put(c < 0x80 ? (byte)c : (byte)'?'); //telemetry is plain ASCII
+        }
+        sendBuffer.put((byte)'*'); //hack together a sting term to solve issue on server end
+        sendBuffer.flip();
+    }
+
+    /**
+     * Bounded, lock free, multi producer queue (D. Vyukov's array queue).
+     * Each slot has a sequence number that says whether it is ready to be written or read,
+     * so producers only race on one compareAndSet of the tail.
+     */
+    private static class SendQueue {
+        private final int mask;
+        private final AtomicReferenceArray<String> items;
+        private final AtomicLongArray sequence;
+        private final AtomicLong tail = new AtomicLong(); //next slot to write
+        private long head = 0;                            //next slot to read, only the sender touches it
+
+        SendQueue(int size)
+        {
+            mask = size - 1;
+            items = new AtomicReferenceArray<>(size);
+            sequence = new AtomicLongArray(size);
+            for(int i = 0; i < size; i++)
+            {
+                sequence.set(i, i);
+            }
+        }
+
+        boolean offer(String item)
+        {
+            while(true)
+            {
+                long pos = tail.get();
+                int slot = (int)(pos & mask);
+                long diff = sequence.get(slot) - pos;
+                if(diff == 0)
+                {
+                    if(tail.compareAndSet(pos, pos + 1))
+                    {
+                        items.lazySet(slot, item);
+                        sequence.set(slot, pos + 1); //publish to the reader
+                        return true;
+                    }
+                }
+                else if(diff < 0)
+                {
+                    return false; //full
+                }
+                //else another producer took this slot, try the next one
+            }
+        }
+
+        String poll()
+        {
+            int slot = (int)(head & mask);
+            if(sequence.get(slot) != head + 1)
+            {
+                return null; //empty, or a producer is still writing this slot
+            }
+            String item = items.get(slot);
+            items.lazySet(slot, null);
+            sequence.set(slot, head + mask + 1); //free the slot for the next lap
+            head++;
+            return item;
+        }
+    }
+}
@@ -1,48 +1,293 @@
 package frc.robot;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * UDP command server. One thread and one Selector serve any number of laptops and co-processors.
+ * A packet is "command args" with an optional '*' terminator (see SocClient).
+ * The command word picks a handler registered with register(). Unknown commands are echoed back
+ * with the first byte changed to 'X', like the old server did.
+ * Receive and reply buffers are allocated once and reused for every packet.
+ * A client that has sent nothing for CLIENT_IDLE_SECONDS is forgotten, stats and all.
+ */
 public class SocServ extends Thread {
-    private ServerSocket serverSocket;
-    private Socket clientSocket;
-    private PrintWriter responce;
-    private BufferedReader inBuffedReader;
-    
-    private DatagramSocket socket;
-    private byte[] buf = new byte[256];
-    
+    /** Handles one command. args holds the bytes after the command word. Put the reply, if any, in reply. */
+    public interface CommandHandler {
+        void handle(SocketAddress client, ByteBuffer args, ByteBuffer reply);
+    }
+
+    /** Traffic and latency for one client. Only the server thread writes these. */
+    public static class ClientStats {
+        volatile long packetsIn = 0;
+        volatile long bytesIn = 0;
+        volatile long packetsOut = 0;
+        volatile long bytesOut = 0;
+        volatile long totalLatencyNanos = 0; //packet received to reply sent
+        volatile long maxLatencyNanos = 0;
+        final long firstSeenNanos = System.nanoTime();
+        volatile long lastSeenNanos = firstSeenNanos;
+
+        public double packetsPerSecond()
+        {
+            double seconds = (lastSeenNanos - firstSeenNanos) / 1.0e9;
+            return seconds > 0 ? packetsIn / seconds : 0;
+        }
+        public double bytesPerSecond()
+        {
+            double seconds = (lastSeenNanos - firstSeenNanos) / 1.0e9;
+            return seconds > 0 ? bytesIn / seconds : 0;
+        }
+        public double averageLatencyMicros()
+        {
+            return packetsIn > 0 ? totalLatencyNanos / 1000.0 / packetsIn : 0;
+        }
+        public double maxLatencyMicros()
+        {
+            return maxLatencyNanos / 1000.0;
+        }
+        public String toString()
+        {
+            return String.format("in %d pkts %.1f pkt/s %.0f B/s, out %d pkts, latency avg %.1f uS max %.1f uS",
+                                 packetsIn, packetsPerSecond(), bytesPerSecond(), packetsOut,
+                                 averageLatencyMicros(), maxLatencyMicros());
+        }
+    }
+
+    private static final int DEFAULT_PORT = 1234;
+    private static final int MAX_PACKET_BYTES = 1024;
+    private static final int MAX_COMMANDS = 32;
+    private static final double CLIENT_IDLE_SECONDS = 60;
+    private static final long CLIENT_IDLE_NANOS = (long)(CLIENT_IDLE_SECONDS * 1.0e9);
+    private static final long PRUNE_PERIOD_MS = 5000;  //also the longest select() waits
+    private Selector selector;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_BYTES);
+    private final ByteBuffer replyBuffer   = ByteBuffer.allocateDirect(MAX_PACKET_BYTES);
+    //Command words are compared byte by byte so a lookup does not build a String per packet
+    private final byte[][] commandNames = new byte[MAX_COMMANDS][];
+    private final CommandHandler[] commandHandlers = new CommandHandler[MAX_COMMANDS];
+    private int commandCount = 0;
+    private final Map<SocketAddress, ClientStats> clients = new ConcurrentHashMap<>();
+    private final Consumer<SelectionKey> readHandler = this::onReadable; //made once, not per select
+    private volatile boolean running = true;
+    private long lastPruneNanos = System.nanoTime();  //server thread only
+
     public SocServ()
     {
+        this(DEFAULT_PORT);
+    }
+
+    public SocServ(int port)
+    {
+        super("SocServ");
+        setDaemon(true);
         try{
-            socket = new DatagramSocket(1234);
+            selector = Selector.open();
+            listen(port);
         }
         catch(IOException ex)
         {
+            System.out.println("socketServer could not open port " + port + " " + ex);
         }
+        register("end", (client, args, reply) -> System.out.println("client trying to end server"));
+        register("stats", (client, args, reply) -> {
+            byte[] text = String.valueOf(clients.get(client)).getBytes(StandardCharsets.US_ASCII);
+            reply.put(text, 0, Math.min(text.length, reply.remaining()));
+        });
+    }
+
+    /** Also serve on another UDP port. All ports are served by the same thread. */
+    public void listen(int port) throws IOException
+    {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ);
+        selector.wakeup();
     }
-    public void run(){       
+
+    /** Add or replace the handler for a command word. Register before start(). */
+    public void register(String command, CommandHandler handler)
+    {
+        byte[] name = command.getBytes(StandardCharsets.US_ASCII);
+        for(int i = 0; i < commandCount; i++)
+        {
+            if(java.util.Arrays.equals(commandNames[i], name))
+            {
+                commandHandlers[i] = handler;
+                return;
+            }
+        }
+        if(commandCount == MAX_COMMANDS)
+        {
+            throw new IllegalStateException("SocServ: too many commands, raise MAX_COMMANDS");
+        }
+        commandNames[commandCount] = name;
+        commandHandlers[commandCount] = handler;
+        commandCount++;
+    }
+
+    /** @return live per client stats, keyed by client address */
+    public Map<SocketAddress, ClientStats> getClientStats()
+    {
+        return clients;
+    }
+
+    public void shutdown()
+    {
+        running = false;
+        if(selector != null)
+        {
+            selector.wakeup();
+        }
+    }
+
+    public void run(){
+        if(selector == null)
+        {
+            return;
+        }
         try{
-            boolean running = true;
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
             while(running)
             {
-                System.out.println("waiting for a reception"); 
-                socket.receive(packet);
-                InetAddress address = packet.getAddress();
-                int port = packet.getPort();
-                packet = new DatagramPacket(buf, buf.length, address, port);
-                String received = new String(packet.getData(), 0, packet.getLength());
-                System.out.println("client sent: " + received);
-                if (received.equals("end")) 
+                selector.select(readHandler, PRUNE_PERIOD_MS);
+                pruneIdleClients();
+            }
+            for(SelectionKey key : selector.keys())
+            {
+                key.channel().close();
+            }
+            selector.close();
+        }
+        catch(IOException ex)
+        {
+        }
+        System.out.println("socketServer exiting Run");
+    }
+
+    /** Drain every packet waiting on the channel. */
+    private void onReadable(SelectionKey key)
+    {
+        DatagramChannel channel = (DatagramChannel)key.channel();
+        try{
+            while(true)
+            {
+                receiveBuffer.clear();
+                SocketAddress address = channel.receive(receiveBuffer);
+                if(address == null)
                 {
-                    System.out.println("client trying to end server");
+                    return; //nothing more waiting
                 }
-                buf[0] = 'X';
-                socket.send(packet);
+                long startNanos = System.nanoTime();
+                ClientStats stats = clients.get(address);
+                if(stats == null)
+                {
+                    stats = new ClientStats(); //only the first packet from a new client allocates
+                    clients.put(address, stats); //before dispatch so "stats" finds it
+                }
+                receiveBuffer.flip();
+                int received = receiveBuffer.remaining();
+                replyBuffer.clear();
+                dispatch(address);
+                replyBuffer.flip();
+                int replied = replyBuffer.remaining();
+                if(replied > 0)
+                {
+                    channel.send(replyBuffer, address);
+                }
+                long endNanos = System.nanoTime();
+
+                stats.packetsIn++;
+                stats.bytesIn += received;
+                if(replied > 0)
+                {
+                    stats.packetsOut++;
+                    stats.bytesOut += replied;
+                }
+                long latency = endNanos - startNanos;
+                stats.totalLatencyNanos += latency;
+                if(latency > stats.maxLatencyNanos)
+                {
+                    stats.maxLatencyNanos = latency;
+                }
+                stats.lastSeenNanos = endNanos;
             }
         }
         catch(IOException ex)
         {
+            //a client went away mid reply. Keep serving the others.
         }
-        System.out.println("socketServer exiting Run");
     }
-}
\ No newline at end of file
+
+    /** Forget clients that went quiet, at most once per PRUNE_PERIOD_MS. */
+    private void pruneIdleClients()
+    {
+        long now = System.nanoTime();
+        if(now - lastPruneNanos < PRUNE_PERIOD_MS * 1_000_000)
+        {
+            return;
+        }
+        lastPruneNanos = now;
+        clients.values().removeIf(stats -> now - stats.lastSeenNanos > CLIENT_IDLE_NANOS);
+    }
+
+    /** Split the packet in receiveBuffer into command and args and call the handler. */
+    private void dispatch(SocketAddress address)
+    {
+        int start = receiveBuffer.position();
+        int end = receiveBuffer.limit();
+        if(end > start && receiveBuffer.get(end - 1) == '*')
+        {
+            end--; //strip SocClient's terminator
+        }
+        int wordEnd = start;
+        while(wordEnd < end && receiveBuffer.get(wordEnd) != ' ')
+        {
+            wordEnd++;
+        }
+        CommandHandler handler = findHandler(start, wordEnd);
+        if(handler == null)
+        {
+            //unknown command, echo it back marked with an X like the old server
+            replyBuffer.put(receiveBuffer);
+            if(replyBuffer.position() > 0)
+            {
+                replyBuffer.put(0, (byte)'X');
+            }
+            return;
+        }
+        int argsStart = Math.min(wordEnd + 1, end);
+        receiveBuffer.limit(end).position(argsStart);
+        handler.handle(address, receiveBuffer, replyBuffer);
+    }
+
+    private CommandHandler findHandler(int start, int end)
+    {
+        int length = end - start;
+        for(int i = 0; i < commandCount; i++)
+        {
+            byte[] name = commandNames[i];
+            if(name.length != length)
+            {
+                continue;
+            }
+            int j = 0;
+            while(j < length && receiveBuffer.get(start + j) == name[j])
+            {
+                j++;
+            }
+            if(j == length)
+            {
+                return commandHandlers[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,106 @@
+package frc.robot;
+
+/**
+ * The arm position loop as the Talon SRX runs it when ArmWrist.ARM_PID_ON_TALON is set, with no
+ * hardware attached. ArmWrist uses the static conversions to configure the real Talon. ArmSim
+ * (--talon) steps an instance every TALON_PERIOD in place of the Talon.
+ *
+ * The Talon works in its own units: the arm pot on its analog input reads 0 to 1023 over the full
+ * travel, and a gain gives output in 1023ths of full drive per sensor unit. The I term adds up the
+ * error every 1 mS and D is the change in error over 1 mS. Our MiniPID gains are in pot positions
+ * [-1.0 to 1.0] per 20 mS loop (ArmWrist.PID_TUNED_PERIOD), so they are rescaled below and the same
+ * @@@ tuning carries over.
+ * The arbitrary feed forward is added to the output after the PID, like the Talon does.
+ */
+public class TalonPositionLoop {
+  static final double TALON_PERIOD   = 0.001;  //seconds, the Talon closed loop rate
+  static final double SENSOR_UNITS   = 1023;   //analog reading over the whole pot travel
+  static final double FULL_OUTPUT    = 1023;   //Talon closed loop output units for full drive
+  static final double UNITS_PER_COUNT = SENSOR_UNITS / (2 * ArmWrist.ARM_DIGITAL_RANGE);
+
+  private final double kP, kI, kD;
+  private final double maxIntegral;
+  private double integral = 0;
+  private double lastError = Double.NaN;
+  double output = 0;  //[-1.0 to 1.0], result of the last step()
+
+  /** The loop with the ArmWrist arm gains. */
+  public TalonPositionLoop()
+  {
+    this(kP(ArmWrist.P_ARM), kI(ArmWrist.I_ARM), kD(ArmWrist.D_ARM), maxIntegral(ArmWrist.I_ARM, ArmWrist.MAX_I_ARM));
+  }
+
+  /** Talon units, as they would be given to config_kP etc. */
+  public TalonPositionLoop(double kP, double kI, double kD, double maxIntegral)
+  {
+    this.kP = kP;
+    this.kI = kI;
+    this.kD = kD;
+    this.maxIntegral = maxIntegral;
+  }
+
+  //----- our units <-> Talon units -----------------------------------------------------------------
+  /** @return Talon sensor units for arm pot counts [-1000 to 1000] */
+  static double toSensorUnits(double potCounts)
+  {
+    return (potCounts + ArmWrist.ARM_DIGITAL_RANGE) * UNITS_PER_COUNT;
+  }
+
+  /** @return arm pot counts [-1000 to 1000] for Talon sensor units */
+  static double toPotCounts(double sensorUnits)
+  {
+    return sensorUnits / UNITS_PER_COUNT - ArmWrist.ARM_DIGITAL_RANGE;
+  }
+
+  //MiniPID output is [-1.0 to 1.0] per pot position [-1.0 to 1.0], i.e. per ARM_DIGITAL_RANGE counts
+  private static final double GAIN_SCALE = FULL_OUTPUT / (ArmWrist.ARM_DIGITAL_RANGE * UNITS_PER_COUNT);
+  private static final double PERIODS_PER_TUNED = ArmWrist.PID_TUNED_PERIOD / TALON_PERIOD;
+
+  static double kP(double p)
+  {
+    return p * GAIN_SCALE;
+  }
+
+  static double kI(double i)
+  {
+    return i * GAIN_SCALE / PERIODS_PER_TUNED;  //adds up 20 times as often
+  }
+
+  static double kD(double d)
+  {
+    return d * GAIN_SCALE * PERIODS_PER_TUNED;  //sees 1/20 of the change
+  }
+
+  /** @return the Talon max integral accumulator that limits the I term output like MiniPID.setMaxIOutput */
+  static double maxIntegral(double i, double maxIOutput)
+  {
+    return i == 0 ? 0 : maxIOutput * FULL_OUTPUT / kI(i);
+  }
+
+  //----- the simulated Talon ------------------------------------------------------------------------
+  /** Clear the I term, as the Talon does when the control mode changes. */
+  public void reset()
+  {
+    integral = 0;
+    lastError = Double.NaN;
+    output = 0;
+  }
+
+  /**
+   * One Talon closed loop cycle.
+   * @param sensorUnits the analog reading, whole units like the Talon reports it
+   * @param targetUnits the Position mode target
+   * @param feedForward the arbitrary feed forward [-1.0 to 1.0]
+   * @return the motor output [-1.0 to 1.0], also left in output
+   */
+  public double step(int sensorUnits, double targetUnits, double feedForward)
+  {
+    double error = targetUnits - sensorUnits;
+    integral = Math.max(-maxIntegral, Math.min(maxIntegral, integral + error));
+    double derivative = Double.isNaN(lastError) ? 0 : error - lastError;
+    lastError = error;
+    double pid = (kP * error + kI * integral + kD * derivative) / FULL_OUTPUT;
+    output = Math.max(-1, Math.min(1, pid + feedForward));
+    return output;
+  }
+}
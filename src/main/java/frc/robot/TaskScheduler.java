@@ -0,0 +1,153 @@
+package frc.robot;
+
+import edu.wpi.first.wpilibj.Notifier;
+import edu.wpi.first.wpilibj.Threads;
+
+/**
+ * Runs robot work at different rates instead of everything in the 20mS TimedRobot loop.
+ *
+ * Each task registers a name, a period and a priority.
+ *  - priority MAIN_LOOP (0): the task runs in the robot loop when runDue() is called and its
+ *    period has passed. Good for slow work like dashboard publishing that only needs a few Hz.
+ *  - priority 1 to 99: the task gets its own Notifier thread, raised to that real time priority
+ *    the first time it runs. Good for control loops that should run faster than the robot loop
+ *    and should not wait behind the joystick, vision or dashboard code.
+ * A real time task shares data with the robot loop, so whatever it reads from the loop must be
+ * handed off safely (see ArmWrist.publishTargets()).
+ *
+ * Every task has a jitter histogram (how late it started compared to its schedule) and a run
+ * time histogram. Both are added to LoopTiming so they show up on the dashboard as
+ * "task name jitter" and "task name". The histograms are read without locking, so a published
+ * window from a real time task can be off by a sample.
+ */
+public class TaskScheduler {
+  public static final int MAIN_LOOP = 0;
+  public static final int MAX_PRIORITY = 99;
+  private static final int MAX_TASKS = 16;
+
+  /** One registered task. */
+  public static class Task implements Runnable {
+    final String name;
+    final long periodNanos;
+    final int priority;
+    final Runnable body;
+    final LatencyHistogram jitter;   //how late each start was
+    final LatencyHistogram runTime;  //how long each run took, overrun if longer than the period
+    private long nextDueNanos = 0;   //0 until the first run
+    private boolean priorityRaised = false;
+    Notifier notifier;              //only for real time tasks
+
+    Task(String name, double periodSeconds, int priority, Runnable body, LoopTiming timing)
+    {
+      this.name = name;
+      this.periodNanos = (long)(periodSeconds * 1.0e9);
+      this.priority = priority;
+      this.body = body;
+      this.jitter = timing.add(name + " jitter", periodSeconds);
+      this.runTime = timing.add(name, periodSeconds);
+    }
+
+    /** Called by the Notifier thread, or by runDue() for main loop tasks. */
+    @Override
+    public void run()
+    {
+      long start = System.nanoTime();
+      if(!priorityRaised && priority != MAIN_LOOP)
+      {
+        Threads.setCurrentThreadPriority(true, priority);
+        priorityRaised = true;
+      }
+      if(nextDueNanos == 0)
+      {
+        nextDueNanos = start;
+      }
+      jitter.record(start - nextDueNanos);
+      nextDueNanos += periodNanos;
+      if(start - nextDueNanos >= periodNanos)
+      {
+        nextDueNanos = start + periodNanos; //missed at least a whole period, start the schedule over
+      }
+      body.run();
+      runTime.recordSince(start);
+    }
+
+    boolean isDue(long now)
+    {
+      return nextDueNanos == 0 || now - nextDueNanos >= 0;
+    }
+  }
+
+  private final LoopTiming timing;
+  private final Task[] tasks = new Task[MAX_TASKS];
+  private int taskCount = 0;
+  private boolean started = false;
+
+  /** @param timing where the per task histograms are published */
+  public TaskScheduler(LoopTiming timing)
+  {
+    this.timing = timing;
+  }
+
+  /**
+   * Register a task. Call before start().
+   * @param name dashboard name
+   * @param periodSeconds how often to run
+   * @param priority MAIN_LOOP to run from runDue(), or 1 to 99 for a real time Notifier thread
+   * @param body the work
+   */
+  public Task add(String name, double periodSeconds, int priority, Runnable body)
+  {
+    if(started)
+    {
+      throw new IllegalStateException("add tasks before start()");
+    }
+    if(priority < MAIN_LOOP || priority > MAX_PRIORITY)
+    {
+      throw new IllegalArgumentException("priority must be 0 to " + MAX_PRIORITY + ": " + name);
+    }
+    Task task = new Task(name, periodSeconds, priority, body, timing);
+    tasks[taskCount++] = task;
+    return task;
+  }
+
+  /** Start the Notifier of every real time task. */
+  public void start()
+  {
+    started = true;
+    for(int i = 0; i < taskCount; i++)
+    {
+      Task task = tasks[i];
+      if(task.priority != MAIN_LOOP && task.notifier == null)
+      {
+        task.notifier = new Notifier(task);
+        task.notifier.startPeriodic(task.periodNanos / 1.0e9);
+      }
+    }
+  }
+
+  /** Call from the robot loop. Runs the main loop tasks whose period has passed, in the order they were added. */
+  public void runDue()
+  {
+    long now = System.nanoTime();
+    for(int i = 0; i < taskCount; i++)
+    {
+      Task task = tasks[i];
+      if(task.priority == MAIN_LOOP && task.isDue(now))
+      {
+        task.run();
+      }
+    }
+  }
+
+  /** Stop the real time tasks. */
+  public void stop()
+  {
+    for(int i = 0; i < taskCount; i++)
+    {
+      if(tasks[i].notifier != null)
+      {
+        tasks[i].notifier.stop();
+      }
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+/**
+ * Desktop tool that turns a TelemetryLog file into CSV, one file per record type.
+ * Copy the log off the robot (scp lvuser@roborio-6423-frc.local:telemetry_*.bin .) then run
+ *   gradlew decodeTelemetry -Plog=telemetry_123_000.bin
+ * which writes telemetry_123_armWrist.csv and so on next to the log.
+ * The first column is seconds since the first record in the file.
+ */
+public class TelemetryDecoder {
+  public static void main(String... args) throws IOException
+  {
+    if(args.length < 1)
+    {
+      System.out.println("usage: TelemetryDecoder <telemetry.bin>");
+      return;
+    }
+    File in = new File(args[0]);
+    ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(in.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    if(buf.getInt(0) != TelemetryLog.MAGIC)
+    {
+      System.out.println(in + " is not a telemetry log");
+      return;
+    }
+    int version     = buf.getInt(4);
+    int recordBytes = buf.getInt(8);
+    int maxFields   = buf.getInt(12);
+    long count      = buf.getLong(TelemetryLog.HEADER_COUNT_OFFSET);  //can be behind after a power loss
+    System.out.printf("%s: version %d, header says %d records of %d bytes\n", in, version, count, recordBytes);
+
+    String base = in.getPath().replaceFirst("\\.bin$", "");
+    PrintWriter[] outs = new PrintWriter[TelemetryLog.TYPE_NAMES.length];
+    long[] written = new long[outs.length];
+    long firstTime = 0;
+    try
+    {
+      for(long r = 0; ; r++)
+      {
+        int at = TelemetryLog.HEADER_BYTES + (int)(r * recordBytes);
+        if(at + recordBytes > buf.capacity())
+        {
+          break;
+        }
+        long time  = buf.getLong(at);
+        int type   = buf.getInt(at + 8);
+        int fields = Math.min(buf.getInt(at + 12), maxFields);
+        if(type == 0)
+        {
+          break; //unused end of file, the records end here whatever the header count says
+        }
+        if(r == 0)
+        {
+          firstTime = time;
+        }
+        if(type >= outs.length)
+        {
+          continue; //written by newer code than this decoder
+        }
+        if(outs[type] == null)
+        {
+          outs[type] = new PrintWriter(base + "_" + TelemetryLog.TYPE_NAMES[type] + ".csv");
+          outs[type].print("time");
+          for(String name : TelemetryLog.FIELD_NAMES[type])
+          {
+            outs[type].print("," + name);
+          }
+          outs[type].println();
+        }
+        PrintWriter out = outs[type];
+        out.printf("%.6f", (time - firstTime) / 1.0e9);
+        for(int f = 0; f < fields; f++)
+        {
+          out.print(",");
+          out.print(buf.getDouble(at + 16 + 8 * f));
+        }
+        out.println();
+        written[type]++;
+      }
+    }
+    finally
+    {
+      for(int t = 0; t < outs.length; t++)
+      {
+        if(outs[t] != null)
+        {
+          outs[t].close();
+          System.out.printf("  %s: %d rows\n", TelemetryLog.TYPE_NAMES[t], written[t]);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package frc.robot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.wpi.first.wpilibj.DriverStation;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/**
+ * Binary telemetry logger that is cheap enough to call every loop.
+ *
+ * Every record has the same size: a System.nanoTime() time stamp, a record type and up to
+ * MAX_FIELDS doubles. log() copies the values into a preallocated ring buffer and returns. It does
+ * not format, allocate or wait for I/O. If the ring is full the record is dropped and counted.
+ * A background thread drains the ring into a memory mapped file under /home/lvuser (or the temp
+ * directory when run off robot) and forces it out to flash once a second, so a brown out or the
+ * robot being switched off loses at most about a second. TelemetryDecoder turns the file into CSV.
+ * Each boot writes a series of files, telemetry_<boot time mS>_<n>.bin, starting the next one when a
+ * file fills. Before each new file the oldest telemetry files are deleted to keep them all under
+ * MAX_TOTAL_BYTES, so logging never stops for lack of room. Records that are lost anyway (ring full,
+ * no file) are counted, and publish() shows them on the dashboard and warns the driver station.
+ *
+ * File layout: a HEADER_BYTES header followed by records of RECORD_BYTES, little endian.
+ *   header: int MAGIC, int VERSION, int RECORD_BYTES, int MAX_FIELDS, long record count, long start time in mS
+ *   record: long nanoTime, int type, int field count, double[MAX_FIELDS] fields
+ * A record type of 0 marks the unused end of the file. Readers go until it, not by the header count,
+ * which can be behind the records when the robot lost power.
+ *
+ * Robot.linkPack writes a power, an input and an output record every loop, and a mode record at
+ * each autonomousInit and teleopInit. MatchReplay plays those back through linkPack, and the arm
+ * wrist records back through ArmWrist.runPids. It calls discardAll() first so the replayed Robot
+ * does not log.
+ */
+public class TelemetryLog {
+  //----- record types and their CSV column names. Add new ones at the end, never renumber ----------
+  static final int TYPE_ARM_WRIST    = 1;
+  static final int TYPE_WRIST_MANUAL = 2;
+  static final int TYPE_PNEUMATICS   = 3;
+  static final int TYPE_INPUT        = 4;  //the InputSnapshot linkPack ran from
+  static final int TYPE_OUTPUT       = 5;  //what linkPack commanded, see Robot.captureOutputs
+  static final int TYPE_MODE         = 6;
+  static final int TYPE_POWER        = 7;  //PowerManager inputs and shed amps, written just before TYPE_INPUT
+  static final int TYPE_POT_FAULT    = 8;  //a pot went out of its safety range, see ArmWrist.checkPot
+  static final int TYPE_PID_RESET    = 9;  //the PID thread cleared the I terms, just before that run's TYPE_ARM_WRIST
+  static final String[] TYPE_NAMES = {"end", "armWrist", "wristManual", "pneumatics", "input", "output", "mode", "power",
+                                      "potFault", "pidReset"};
+  static final String[][] FIELD_NAMES = {
+    {},
+    {"armCurrent", "armSetpoint", "armPid", "armAngle", "armFeedForward",
+     "wristCurrent", "wristSetpoint", "wristPid", "wristAngle", "wristFeedForward",
+     "armTarget", "wristTarget"},  //the targets that PID run used, time is the run's, see ArmWrist.runPids
+    {"drive", "up", "down", "holdBack"},
+    {"event"},  //see PNEUMATIC_* event codes
+    {"axis0", "axis1", "axis2", "axis3", "axis4", "axis5", "buttons", "pov", "armPot", "wristPot"},
+    {"intake", "driveLeft", "driveRight", "hatchPull", "hatchPush", "climbExtend", "climbRetract",
+     "armTarget", "wristTarget", "wristDrive"},
+    {"mode", "auto"},  //see MODE_* codes. auto is 1 for the custom auto, 0 for the default
+    {"totalCurrent", "voltage", "pdpSamples", "shedAmps"},
+    {"pot", "reading"},  //pot is ArmWrist.ARM_POT or WRIST_POT
+    {},
+  };
+  //event codes for TYPE_PNEUMATICS
+  static final double PNEUMATIC_HATCH_PUSH = 1;
+  static final double PNEUMATIC_CLIMB      = 2;
+  static final double PNEUMATIC_RETRACT    = 3;
+  //mode codes for TYPE_MODE
+  static final double MODE_AUTONOMOUS = 1;
+  static final double MODE_TELEOP     = 2;
+
+  //----- format ------------------------------------------------------------------------------------
+  static final int MAGIC        = 0x4C544D57; //"WMTL"
+  static final int VERSION      = 2;   //2: 12 fields, armWrist records have the targets
+  static final int MAX_FIELDS   = 12;
+  static final int RECORD_BYTES = 16 + 8 * MAX_FIELDS;
+  static final int HEADER_BYTES = 64;
+  static final int HEADER_COUNT_OFFSET = 16;
+
+  //Enabled: TYPE_ARM_WRIST every ArmWrist.PID_PERIOD (200) plus power, input and output every 20mS loop (150).
+  //Disabled next to nothing, the armPids task and linkPack only run enabled. So the sizes below are in
+  //seconds of enabled time, and a match is 150 of them
+  static final int    RECORDS_PER_SECOND = 350;
+  static final int    FILE_SECONDS  = 5 * 60;                      //per file, two matches
+  private static final int  RING_RECORDS  = 4096;                  //must be a power of 2. ~12 seconds, the drain runs every 50mS
+  private static final long FILE_BYTES    = HEADER_BYTES + (long)FILE_SECONDS * RECORDS_PER_SECOND * RECORD_BYTES; //~12MB
+  static final long MAX_TOTAL_BYTES = 8 * FILE_BYTES;              //~94MB of flash, the last ~40 minutes enabled
+  private static final long DRAIN_PERIOD_NANOS = 50_000_000;       //50mS
+  private static final long FORCE_PERIOD_NANOS = 1_000_000_000;    //1S, most that is lost if the power goes
+  private static final String ROBOT_LOG_DIR = "/home/lvuser";
+  private static final String FILE_PREFIX   = "telemetry_";
+  private static final String FILE_SUFFIX   = ".bin";
+
+  private static TelemetryLog instance;
+
+  //----- ring buffer, many producers, one consumer (the drain thread) ------------------------------
+  private final ByteBuffer ring = ByteBuffer.allocateDirect(RING_RECORDS * RECORD_BYTES)
+                                            .order(java.nio.ByteOrder.LITTLE_ENDIAN);
+  private final AtomicLongArray sequence = new AtomicLongArray(RING_RECORDS); //says if a slot is free or filled
+  private final AtomicLong head = new AtomicLong();  //next record to write
+  private long tail = 0;                             //next record to drain, only the drain thread uses it
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile long written = 0;
+  private final boolean discard;                     //discardAll(), no file and no drain thread
+  private long forced = 0;                           //written as of the last force(), drain thread only
+  //----- files, drain thread only after the constructor -----
+  private File dir;
+  private long bootMillis;
+  private int fileNumber = 0;                        //the next file's <n>
+  private long fileRecords = 0;                      //records in the current file
+  private MappedByteBuffer file;
+  private volatile String fileName = "(none)";
+  private Thread drainThread;
+  //----- publish(), robot loop only -----
+  private long droppedReported = 0;
+
+  /** @return the robot wide logger. The first call opens the file and starts the drain thread. */
+  public static synchronized TelemetryLog get()
+  {
+    if(instance == null)
+    {
+      File dir = new File(ROBOT_LOG_DIR);
+      if(!dir.isDirectory())
+      {
+        dir = new File(System.getProperty("java.io.tmpdir")); //off robot
+      }
+      instance = new TelemetryLog(dir);
+    }
+    return instance;
+  }
+
+  /**
+   * Make get() hand out a logger that throws every record away, with no file and no drain thread.
+   * For MatchReplay, whose Robot must not log what it replays. Call before anything calls get().
+   */
+  static synchronized void discardAll()
+  {
+    if(instance == null)
+    {
+      instance = new TelemetryLog();
+    }
+  }
+
+  /**
+   * Delete the oldest telemetry files in dir until the rest add up to maxBytes or less.
+   * The names start with the boot time and then the file number, so they sort oldest first.
+   */
+  static void deleteOldFiles(File dir, long maxBytes)
+  {
+    File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+    if(files == null)
+    {
+      return;
+    }
+    Arrays.sort(files);
+    long total = 0;
+    for(File f : files)
+    {
+      total += f.length();
+    }
+    for(int i = 0; i < files.length && total > maxBytes; i++)
+    {
+      long length = files[i].length();
+      if(files[i].delete())
+      {
+        total -= length;
+      }
+      else
+      {
+        System.out.println("*Error* TelemetryLog could not delete " + files[i]);
+      }
+    }
+  }
+
+  private TelemetryLog()
+  {
+    discard = true;
+  }
+
+  /** Log to a new series of files in dir. */
+  TelemetryLog(File dir)
+  {
+    discard = false;
+    for(int i = 0; i < RING_RECORDS; i++)
+    {
+      sequence.set(i, i);
+    }
+    this.dir = dir;
+    bootMillis = System.currentTimeMillis();
+    openNextFile();
+    drainThread = new Thread(this::drainLoop, "TelemetryLog");
+    drainThread.setDaemon(true);
+    drainThread.setPriority(Thread.MIN_PRIORITY);
+    drainThread.start();
+  }
+
+  public void log(int type, double v0)
+  {
+    log(System.nanoTime(), type, 1, v0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  public void log(int type, double v0, double v1)
+  {
+    log(System.nanoTime(), type, 2, v0, v1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  public void log(int type, double v0, double v1, double v2, double v3)
+  {
+    log(System.nanoTime(), type, 4, v0, v1, v2, v3, 0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  public void log(int type, double v0, double v1, double v2, double v3, double v4,
+                            double v5, double v6, double v7, double v8, double v9)
+  {
+    log(System.nanoTime(), type, 10, v0, v1, v2, v3, v4, v5, v6, v7, v8, v9, 0, 0);
+  }
+
+  /** A record with no fields, stamped with time (a System.nanoTime()) instead of now. */
+  public void logAt(long time, int type)
+  {
+    log(time, type, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+  }
+
+  /** A record stamped with time (a System.nanoTime()) instead of now, so a reader gets the exact time the caller used. */
+  public void logAt(long time, int type, double v0, double v1, double v2, double v3, double v4, double v5,
+                                         double v6, double v7, double v8, double v9, double v10, double v11)
+  {
+    log(time, type, 12, v0, v1, v2, v3, v4, v5, v6, v7, v8, v9, v10, v11);
+  }
+
+  /** Copy one record into the ring. Safe from any thread, never blocks or allocates. */
+  private void log(long time, int type, int count, double v0, double v1, double v2, double v3, double v4, double v5,
+                                                   double v6, double v7, double v8, double v9, double v10, double v11)
+  {
+    if(discard)
+    {
+      return;
+    }
+    long pos;
+    int slot;
+    while(true)
+    {
+      pos = head.get();
+      slot = (int)(pos & (RING_RECORDS - 1));
+      long diff = sequence.get(slot) - pos;
+      if(diff == 0 && head.compareAndSet(pos, pos + 1))
+      {
+        break; //slot is ours
+      }
+      if(diff < 0)
+      {
+        dropped.incrementAndGet(); //ring is full, the drain thread is behind
+        return;
+      }
+    }
+    int base = slot * RECORD_BYTES;
+    ring.putLong(base, time);
+    ring.putInt(base + 8, type);
+    ring.putInt(base + 12, count);
+    ring.putDouble(base + 16, v0);
+    ring.putDouble(base + 24, v1);
+    ring.putDouble(base + 32, v2);
+    ring.putDouble(base + 40, v3);
+    ring.putDouble(base + 48, v4);
+    ring.putDouble(base + 56, v5);
+    ring.putDouble(base + 64, v6);
+    ring.putDouble(base + 72, v7);
+    ring.putDouble(base + 80, v8);
+    ring.putDouble(base + 88, v9);
+    ring.putDouble(base + 96, v10);
+    ring.putDouble(base + 104, v11);
+    sequence.set(slot, pos + 1); //hand it to the drain thread
+  }
+
+  /** @return records lost because the ring or the file was full */
+  public long getDroppedCount()
+  {
+    return dropped.get();
+  }
+
+  /** @return records written to the file */
+  public long getWrittenCount()
+  {
+    return written;
+  }
+
+  public String getFileName()
+  {
+    return fileName;
+  }
+
+  /** Make room under MAX_TOTAL_BYTES, then map the next file of the series. On failure file is null and records are dropped. */
+  private void openNextFile()
+  {
+    deleteOldFiles(dir, MAX_TOTAL_BYTES - FILE_BYTES);
+    File path = new File(dir, String.format("%s%d_%03d%s", FILE_PREFIX, bootMillis, fileNumber++, FILE_SUFFIX));
+    fileRecords = 0;
+    try(FileChannel channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      file = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES); //mapping stays valid after close
+      file.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+      file.putInt(0, MAGIC);
+      file.putInt(4, VERSION);
+      file.putInt(8, RECORD_BYTES);
+      file.putInt(12, MAX_FIELDS);
+      file.putLong(HEADER_COUNT_OFFSET, 0);
+      file.putLong(24, System.currentTimeMillis());
+      file.position(HEADER_BYTES);
+      fileName = path.getPath();
+      System.out.println("TelemetryLog writing to " + fileName);
+    }
+    catch(IOException ex)
+    {
+      file = null; //keep accepting records so callers don't care, they are just thrown away
+      fileName = "(none)";
+      System.out.println("*Error* TelemetryLog could not open " + path + " " + ex);
+    }
+  }
+
+  /**
+   * Put the counts on the dashboard, and warn the driver station if records were lost since the last
+   * call, so a log that stopped is noticed at the time and not when it is decoded.
+   * Run from the "telemetry" TaskScheduler task.
+   */
+  public void publish()
+  {
+    long lost = dropped.get();
+    SmartDashboard.putNumber("telemetry/records written", written);
+    SmartDashboard.putNumber("telemetry/records dropped", lost);
+    SmartDashboard.putString("telemetry/file", fileName);
+    if(lost != droppedReported)
+    {
+      DriverStation.reportWarning("TelemetryLog dropped " + (lost - droppedReported) + " records, writing to "
+                                  + fileName, false);
+      droppedReported = lost;
+    }
+  }
+
+  private void drainLoop()
+  {
+    long lastForce = System.nanoTime();
+    while(true)
+    {
+      drain();
+      long now = System.nanoTime();
+      if(now - lastForce >= FORCE_PERIOD_NANOS)
+      {
+        lastForce = now;
+        force();
+      }
+      LockSupport.parkNanos(DRAIN_PERIOD_NANOS);
+    }
+  }
+
+  /** Write what has been drained out to flash. Only the pages that changed are written, and only if there are any. */
+  private void force()
+  {
+    if(file != null && written != forced)
+    {
+      file.force();
+      forced = written;
+    }
+  }
+
+  /** Move everything that is ready from the ring to the file. */
+  private void drain()
+  {
+    long count = written;
+    while(true)
+    {
+      int slot = (int)(tail & (RING_RECORDS - 1));
+      if(sequence.get(slot) != tail + 1)
+      {
+        break; //empty, or a producer is still filling this slot
+      }
+      if(file != null && file.remaining() < RECORD_BYTES)
+      {
+        file.putLong(HEADER_COUNT_OFFSET, fileRecords);  //full, finish it and go on in the next one
+        file.force();
+        openNextFile();
+      }
+      if(file != null)
+      {
+        int base = slot * RECORD_BYTES;
+        for(int i = 0; i < RECORD_BYTES; i += 8)
+        {
+          file.putLong(ring.getLong(base + i));
+        }
+        count++;
+        fileRecords++;
+      }
+      else
+      {
+        dropped.incrementAndGet();
+      }
+      sequence.set(slot, tail + RING_RECORDS); //free the slot for the next lap
+      tail++;
+    }
+    if(count != written)
+    {
+      if(file != null)
+      {
+        file.putLong(HEADER_COUNT_OFFSET, fileRecords);
+      }
+      written = count;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package frc.robot;
+
+/**
+ * Fastest move from a start position and velocity to a goal at rest, within a max velocity and
+ * max acceleration: accelerate, cruise at max velocity, decelerate. Short moves never reach
+ * max velocity and are a triangle instead.
+ * Units are whatever the caller uses, ArmWrist uses pot counts and seconds.
+ *
+ * plan() does the square root and divides once, position(t) and velocity(t) are a few multiplies,
+ * so a profile can be replanned every time the goal changes and read every PID cycle.
+ * The math follows the usual trapezoid profile: a start velocity is handled by pretending the move
+ * started earlier from rest, and a start velocity away from the goal just makes that earlier start
+ * further back. Too fast to stop at the goal is the same as moving away from it, in the other direction.
+ */
+public class TrapezoidProfile {
+  private double maxVelocity;
+  private double maxAcceleration;
+  //----- the plan, in a frame where the move is in the positive direction ------
+  private double start = 0;
+  private double direction = 1;
+  private double distance = 0;       //goal - start in that frame, negative if we have to come back to it
+  private double startVelocity = 0;
+  private double peakVelocity = 0;
+  private double endAccel = 0;       //seconds
+  private double endCruise = 0;
+  private double endDecel = 0;
+
+  public TrapezoidProfile(double maxVelocity, double maxAcceleration)
+  {
+    this.maxVelocity = maxVelocity;
+    this.maxAcceleration = maxAcceleration;
+  }
+
+  /** Change the limits for the next plan(). */
+  public TrapezoidProfile setLimits(double maxVelocity, double maxAcceleration)
+  {
+    this.maxVelocity = maxVelocity;
+    this.maxAcceleration = maxAcceleration;
+    return this;
+  }
+
+  /** A planned rest to rest move. */
+  public TrapezoidProfile(double maxVelocity, double maxAcceleration, double start, double goal)
+  {
+    this(maxVelocity, maxAcceleration);
+    plan(start, 0, goal);
+  }
+
+  /**
+   * Plan a new move, replacing the last one.
+   * @return this, for chaining
+   */
+  public TrapezoidProfile plan(double start, double startVelocity, double goal)
+  {
+    double a = maxAcceleration;
+    this.start = start;
+    //go toward the goal from where we would stop, so a move that can not stop in time goes past and comes back
+    double stop = start + startVelocity * Math.abs(startVelocity) / (2 * a);
+    direction = goal >= stop ? 1 : -1;
+    distance = direction * (goal - start);
+    this.startVelocity = Math.max(-maxVelocity, Math.min(maxVelocity, direction * startVelocity));
+    //time and distance the move would already have taken to reach the start velocity from rest
+    double cutoffTime = this.startVelocity / a;
+    double cutoffDistance = cutoffTime * cutoffTime * a / 2;
+    double fullDistance = cutoffDistance + distance;
+    double accelTime = maxVelocity / a;
+    double cruiseDistance = fullDistance - accelTime * accelTime * a;
+    if(cruiseDistance < 0)
+    {
+      accelTime = Math.sqrt(fullDistance / a); //triangle, never reaches max velocity
+      cruiseDistance = 0;
+    }
+    peakVelocity = accelTime * a;
+    endAccel = accelTime - cutoffTime;
+    endCruise = endAccel + cruiseDistance / maxVelocity;
+    endDecel = endCruise + accelTime;
+    return this;
+  }
+
+  /** @return seconds the planned move takes */
+  public double duration()
+  {
+    return endDecel;
+  }
+
+  public double position(double t)
+  {
+    return start + direction * distanceAt(t);
+  }
+
+  public double velocity(double t)
+  {
+    double a = maxAcceleration;
+    if(t < endAccel)
+    {
+      return direction * (startVelocity + a * t);
+    }
+    if(t < endCruise)
+    {
+      return direction * peakVelocity;
+    }
+    if(t < endDecel)
+    {
+      return direction * a * (endDecel - t);
+    }
+    return 0;
+  }
+
+  private double distanceAt(double t)
+  {
+    double a = maxAcceleration;
+    if(t < endAccel)
+    {
+      return (startVelocity + a * t / 2) * t;
+    }
+    if(t < endCruise)
+    {
+      return (startVelocity + a * endAccel / 2) * endAccel + peakVelocity * (t - endAccel);
+    }
+    if(t < endDecel)
+    {
+      double timeLeft = endDecel - t;
+      return distance - (a * timeLeft / 2) * timeLeft;
+    }
+    return distance;
+  }
+
+  /** @return rest to rest profiles between every pair of positions, [from][to] */
+  public static TrapezoidProfile[][] between(double[] positions, double maxVelocity, double maxAcceleration)
+  {
+    TrapezoidProfile[][] profiles = new TrapezoidProfile[positions.length][positions.length];
+    for(int from = 0; from < positions.length; from++)
+    {
+      for(int to = 0; to < positions.length; to++)
+      {
+        profiles[from][to] = new TrapezoidProfile(maxVelocity, maxAcceleration, positions[from], positions[to]);
+      }
+    }
+    return profiles;
+  }
+}
@@ -0,0 +1,70 @@
+package frc.robot;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.first.wpilibj.Timer;
+
+/**
+ * Runs the LPipeline on its own thread, apart from the 20mS robot loop.
+ *
+ * CvSink.grabFrame() waits for the next new frame and hands back only the newest one, so any frames
+ * that arrive while a slow frame is being processed are dropped instead of queued.
+ * Each result is published into a VisionMailbox that the robot loop reads without blocking.
+ */
+public class VisionExecutor extends Thread {
+  private final CvSink sink;
+  private final LPipeline pipeline;
+  private final VisionMailbox mailbox;
+  private final Mat frame = new Mat();  //reused for every frame
+  private volatile long frameNumber = 0; //volatile, only this thread writes but the robot loop reads
+  private volatile long grabErrors = 0;
+
+  public VisionExecutor(CvSink sink, LPipeline pipeline, VisionMailbox mailbox)
+  {
+    super("VisionExecutor");
+    this.sink = sink;
+    this.pipeline = pipeline;
+    this.mailbox = mailbox;
+    setDaemon(true);                  //don't hold the robot program open
+    //Java thread priorities do nothing on the roboRIO's JVM, this runs at normal priority beside the
+    //robot loop. Only the real time TaskScheduler threads (the PIDs, the PDP sampler) are sure to come first
+  }
+
+  public void run()
+  {
+    while(!isInterrupted())
+    {
+      long frameTimeMicros = sink.grabFrame(frame);
+      if(frameTimeMicros == 0)
+      {
+        grabErrors++; //timeout or camera unplugged, try again. Error text is in sink.getError()
+        continue;
+      }
+      pipeline.process(frame);
+
+      VisionTarget target = mailbox.writeBuffer();
+      target.setFromLines(pipeline.filterLinesOutput());
+      target.frameTime   = frameTimeMicros / 1.0e6;
+      target.publishTime = Timer.getFPGATimestamp();
+      target.frameNumber = ++frameNumber;
+      target.tracking    = pipeline.isTracking();
+      mailbox.publish();
+    }
+    frame.release();
+    pipeline.release();
+    System.out.println("VisionExecutor exiting Run");
+  }
+
+  /** @return frames processed so far */
+  public long getFrameCount()
+  {
+    return frameNumber;
+  }
+
+  /** @return failed frame grabs so far */
+  public long getGrabErrorCount()
+  {
+    return grabErrors;
+  }
+}
@@ -0,0 +1,49 @@
+package frc.robot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Single slot, lock free hand off of the latest VisionTarget from the vision thread to the robot loop.
+ *
+ * It is a triple buffer. The writer owns one VisionTarget, the reader owns another and the third is
+ * the shared "latest" slot. Publishing swaps the writer's buffer into the slot, reading swaps the
+ * slot out to the reader. Neither side ever waits on the other and nothing is allocated after
+ * construction. A result the reader never picked up is simply overwritten by the next one, so the
+ * reader always gets the freshest frame and old frames never queue up.
+ *
+ * Only one thread may publish and only one thread may read.
+ */
+public class VisionMailbox {
+  private static final int DIRTY = 4;   //set in the slot index when it holds a result the reader has not seen
+  private static final int INDEX = 3;   //mask for the buffer index
+
+  private final VisionTarget[] buffers = {new VisionTarget(), new VisionTarget(), new VisionTarget()};
+  private final AtomicInteger latest = new AtomicInteger(0);  //shared slot
+  private int writeIndex = 1;  //only touched by the vision thread
+  private int readIndex  = 2;  //only touched by the robot loop
+
+  /** Vision thread: @return the buffer to fill before calling publish() */
+  VisionTarget writeBuffer()
+  {
+    return buffers[writeIndex];
+  }
+
+  /** Vision thread: make the filled write buffer the latest result. */
+  void publish()
+  {
+    writeIndex = latest.getAndSet(writeIndex | DIRTY) & INDEX;
+  }
+
+  /**
+   * Robot loop: never blocks.
+   * @return the freshest published target. It belongs to the caller until the next call.
+   */
+  VisionTarget latest()
+  {
+    if((latest.get() & DIRTY) != 0)
+    {
+      readIndex = latest.getAndSet(readIndex) & INDEX;
+    }
+    return buffers[readIndex];
+  }
+}
@@ -0,0 +1,51 @@
+package frc.robot;
+
+/**
+ * The result of one vision frame, boiled down to what the controls need.
+ * Instances are recycled by VisionMailbox, so copy the values out if you need them after the
+ * next call to VisionMailbox.latest().
+ */
+public class VisionTarget {
+  boolean valid         = false; //true if at least one line passed the pipeline filter
+  int     lineCount     = 0;     //lines that passed the filter
+  double  centerX       = 0;     //length weighted center of the lines, in pixels
+  double  centerY       = 0;
+  double  angle         = 0;     //angle of the longest line in degrees
+  double  longestLength = 0;     //in pixels
+  double  frameTime     = 0;     //seconds, when the camera captured the frame (FPGA time base)
+  double  publishTime   = 0;     //seconds, when the vision thread finished with the frame
+  long    frameNumber   = 0;     //counts up by one per processed frame, 0 means nothing published yet
+  boolean tracking      = false; //true if the frame was processed in the region around the last target
+
+  /** Summarize the filtered lines of a frame into this target. Does not allocate. */
+  void setFromLines(LPipeline.LineBuffer lines)
+  {
+    lineCount = lines.size();
+    valid = lineCount > 0;
+    double sumX = 0;
+    double sumY = 0;
+    double sumLength = 0;
+    longestLength = 0;
+    angle = 0;
+    for(int i = 0; i < lineCount; i++)
+    {
+      double len = lines.length[i];
+      sumX += len * (lines.x1[i] + lines.x2[i]) * 0.5;
+      sumY += len * (lines.y1[i] + lines.y2[i]) * 0.5;
+      sumLength += len;
+      if(len > longestLength)
+      {
+        longestLength = len;
+        angle = lines.angle[i];
+      }
+    }
+    centerX = sumLength > 0 ? sumX / sumLength : 0;
+    centerY = sumLength > 0 ? sumY / sumLength : 0;
+  }
+
+  /** @return true if a target was seen no more than maxAge seconds before now */
+  boolean isFresh(double now, double maxAge)
+  {
+    return valid && frameNumber > 0 && (now - publishTime) <= maxAge;
+  }
+}
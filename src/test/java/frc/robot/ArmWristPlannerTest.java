@@ -0,0 +1,94 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Whatever the goals, every setpoint ArmWristPlanner hands out has to be a hand position
+ * ArmWrist.isHandPositionAllowed accepts.
+ */
+public class ArmWristPlannerTest {
+  static final double DT = 0.001;  //seconds per step, finer than the PID thread
+
+  @Test
+  public void poseToPoseStaysAllowedAndArrives()
+  {
+    double[] arm = ArmWrist.ARM_POSES, wrist = ArmWrist.WRIST_POSES;
+    for(int from = 0; from < arm.length; from++)
+    {
+      for(int to = 0; to < arm.length; to++)
+      {
+        ArmWristPlanner planner = new ArmWristPlanner();
+        planner.start(arm[from], wrist[from]);
+        for(int n = 0; n < 2000; n++)
+        {
+          planner.step(arm[to], wrist[to], DT);
+          assertAllowed(planner, "pose " + from + " to " + to + " step " + n);
+        }
+        assertEquals("arm reached pose " + to, arm[to], planner.armSetpoint, 0);
+        assertEquals("wrist reached pose " + to, wrist[to], planner.wristSetpoint, 0);
+      }
+    }
+  }
+
+  @Test
+  public void randomGoalsStayAllowed()
+  {
+    Random random = new Random(6423);
+    ArmWristPlanner planner = new ArmWristPlanner();
+    planner.start(ArmWrist.ARM_POSES[0], ArmWrist.WRIST_POSES[0]);
+    for(int goal = 0; goal < 3000; goal++)
+    {
+      //anywhere in the pot range, allowed or not, held for a random time so most moves are cut short
+      double armGoal = -1000 + 2000 * random.nextDouble();
+      double wristGoal = -1000 + 2000 * random.nextDouble();
+      int steps = random.nextInt(600);
+      for(int n = 0; n < steps; n++)
+      {
+        planner.step(armGoal, wristGoal, DT);
+        assertAllowed(planner, "goal " + goal + " (" + armGoal + ", " + wristGoal + ") step " + n);
+      }
+    }
+  }
+
+  @Test
+  public void edgeSweepKeepsVelocityContinuous()
+  {
+    //upDownManualArm with the wrist up: the arm goal creeps 5 counts every 20mS loop, up the
+    // HAND_UNDER_EXTEND_LIMIT edge (the goal clamp moves the wrist down) and on into the arm limit
+    double dt = ArmWrist.PID_PERIOD;
+    ArmWristPlanner planner = new ArmWristPlanner();
+    planner.start(-600, 500);
+    double armGoal = -600;
+    double armVelocity = 0, wristVelocity = 0;
+    for(int n = 0; n < 1200; n++)
+    {
+      if(n % 4 == 0 && armGoal < 100)
+      {
+        armGoal += 5;
+      }
+      planner.step(armGoal, 500, dt);
+      String where = "goal " + armGoal + " step " + n;
+      assertAllowed(planner, where);
+      assertEquals(where + ": arm velocity jumped", armVelocity, planner.armVelocity,
+                   ArmWrist.ARM_MAX_ACCELERATION * dt + 1e-6);
+      assertEquals(where + ": wrist velocity jumped", wristVelocity, planner.wristVelocity,
+                   ArmWrist.WRIST_MAX_ACCELERATION * dt + 1e-6);
+      armVelocity = planner.armVelocity;
+      wristVelocity = planner.wristVelocity;
+    }
+    assertEquals("arm at its limit", ArmWrist.ARM_POT_FULL_UP, planner.armSetpoint, 1e-3);
+    assertEquals("wrist at the edge", ArmWrist.HAND_UNDER_EXTEND_LIMIT - ArmWrist.ARM_POT_FULL_UP,
+                 planner.wristSetpoint, 1e-3);
+  }
+
+  private static void assertAllowed(ArmWristPlanner planner, String where)
+  {
+    assertTrue(where + ": setpoint " + planner.armSetpoint + ", " + planner.wristSetpoint + " is not allowed",
+               ArmWrist.isHandPositionAllowed(planner.armSetpoint, planner.wristSetpoint));
+  }
+}
@@ -0,0 +1,131 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * PIDBank has to return exactly what MiniPID does, bit for bit, for any settings and inputs.
+ * Each test runs a bank and one MiniPID per controller side by side on the same random settings
+ * and inputs, and compares every output.
+ */
+public class PIDBankTest {
+  static final int SIZE   = 6;
+  static final int CYCLES = 20000;
+
+  @Test
+  public void matchesMiniPIDOncePerCall()
+  {
+    compare(new Random(6423), 0);
+  }
+
+  @Test
+  public void matchesMiniPIDWithNominalPeriod()
+  {
+    compare(new Random(2019), 0.005);
+  }
+
+  private static void compare(Random random, double nominalPeriod)
+  {
+    PIDBank bank = new PIDBank(SIZE);
+    MiniPID[] pids = new MiniPID[SIZE];
+    for(int k = 0; k < SIZE; k++)
+    {
+      pids[k] = new MiniPID(0, 0, 0);
+      configure(random, k, bank, pids[k], false);
+    }
+    bank.setNominalPeriod(nominalPeriod);
+    for(MiniPID pid : pids)
+    {
+      pid.setNominalPeriod(nominalPeriod);
+    }
+
+    double[] actual = new double[SIZE];
+    double[] setpoint = new double[SIZE];
+    double[] output = new double[SIZE];
+    for(int n = 0; n < CYCLES; n++)
+    {
+      for(int k = 0; k < SIZE; k++)
+      {
+        actual[k] = random.nextDouble() * 2000 - 1000;
+        setpoint[k] = random.nextInt(4) == 0 ? setpoint[k] : random.nextDouble() * 2000 - 1000;
+      }
+      double dt = nominalPeriod * (0.5 + random.nextDouble() * 2);  //late and early loops
+      bank.update(actual, setpoint, output, dt);
+      for(int k = 0; k < SIZE; k++)
+      {
+        double expected = pids[k].getOutput(actual[k], setpoint[k], dt);
+        assertEquals("controller " + k + " cycle " + n + " output " + expected + " != " + output[k],
+                     Double.doubleToLongBits(expected), Double.doubleToLongBits(output[k]));
+        assertEquals("controller " + k + " cycle " + n + " I term",
+                     Double.doubleToLongBits(pids[k].getIOutput()), Double.doubleToLongBits(bank.getIOutput(k)));
+      }
+      if(random.nextInt(500) == 0)
+      {
+        int k = random.nextInt(SIZE);
+        bank.reset(k);
+        pids[k].reset();
+      }
+      if(random.nextInt(2000) == 0)
+      {
+        int k = random.nextInt(SIZE);
+        configure(random, k, bank, pids[k], true);  //retuned while running
+      }
+    }
+  }
+
+  /**
+   * Random settings, each feature left off about half the time.
+   * @param retune already running. MiniPID.setI(0) after a nonzero I divides the error sum by 0, so keep some I
+   */
+  private static void configure(Random random, int k, PIDBank bank, MiniPID pid, boolean retune)
+  {
+    double p = random.nextDouble() * 0.01;
+    double i = (retune || random.nextBoolean()) ? 1e-6 + random.nextDouble() * 0.001 : 0;
+    double d = random.nextBoolean() ? random.nextDouble() * 0.05 : 0;
+    double f = random.nextBoolean() ? random.nextDouble() * 0.001 : 0;
+    bank.setPID(k, p, i, d, f);
+    pid.setPID(p, i, d, f);
+    if(random.nextBoolean())
+    {
+      double max = random.nextDouble() * 0.5;
+      bank.setMaxIOutput(k, max);
+      pid.setMaxIOutput(max);
+    }
+    if(random.nextBoolean())
+    {
+      double max = 0.2 + random.nextDouble() * 0.8;
+      bank.setOutputLimits(k, -max, max);
+      pid.setOutputLimits(-max, max);
+    }
+    if(random.nextBoolean())
+    {
+      double rate = random.nextDouble() * 0.1;
+      bank.setOutputRampRate(k, rate);
+      pid.setOutputRampRate(rate);
+    }
+    if(random.nextBoolean())
+    {
+      double strength = random.nextDouble() * 0.9;
+      bank.setOutputFilter(k, strength);
+      pid.setOutputFilter(strength);
+    }
+    if(random.nextBoolean())
+    {
+      double strength = random.nextDouble() * 0.9;
+      bank.setDFilter(k, strength);
+      pid.setDFilter(strength);
+    }
+    if(random.nextBoolean())
+    {
+      double range = random.nextDouble() * 500;
+      bank.setSetpointRange(k, range);
+      pid.setSetpointRange(range);
+    }
+    boolean reversed = random.nextInt(4) == 0;
+    bank.setDirection(k, reversed);
+    pid.setDirection(reversed);
+  }
+}
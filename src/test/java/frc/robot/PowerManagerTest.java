@@ -0,0 +1,77 @@
+package frc.robot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * PowerManager is fed PDP samples with load(), the way MatchReplay does, so nothing here needs a PDP.
+ */
+public class PowerManagerTest {
+  static final double VOLTS = 12;
+
+  private long samples = 0;  //junit makes a new instance for each test
+
+  /** One new PDP sample, then update(). */
+  private void sample(PowerManager power, double amps, double volts)
+  {
+    power.load(new double[] {amps, volts, ++samples});
+    power.update(false);
+  }
+
+  @Test
+  public void shedAmpsStopsAtWhatCanBeShed()
+  {
+    PowerManager power = new PowerManager();
+    double max = PowerManager.sheddableAmps(new boolean[] {true, true, true, true});
+    for(int n = 0; n < 3000; n++)  //a minute of a stalled pushing match
+    {
+      sample(power, 2 * PowerManager.CURRENT_LIMIT, 6);
+      assertTrue("shedAmps " + power.shedAmps + " over " + max, power.shedAmps <= max);
+    }
+    assertEquals(max, power.shedAmps, 1e-9);
+    for(int s = 0; s < 4; s++)
+    {
+      assertEquals(PowerManager.NAMES[s] + " at its minimum", PowerManager.MIN_SCALE[s], power.scale(s), 1e-9);
+    }
+    //back under the limit, full power is back in max / RECOVER_AMPS_PER_SECOND however long the overload was
+    int recoverySamples = (int)Math.ceil(max / PowerManager.RECOVER_AMPS_PER_SECOND / PdpSampler.SAMPLE_PERIOD);
+    for(int n = 0; n < recoverySamples; n++)
+    {
+      sample(power, 0, VOLTS);
+    }
+    assertEquals(0, power.shedAmps, 1e-9);
+    assertEquals(1, power.scale(PowerManager.DRIVE), 1e-9);
+    assertTrue(!power.compressorPaused);
+  }
+
+  @Test
+  public void undrivenSubsystemIsSkipped()
+  {
+    PowerManager power = new PowerManager();
+    power.setDriven(PowerManager.ARM, false);
+    double max = PowerManager.sheddableAmps(new boolean[] {true, false, true, true});
+    for(int n = 0; n < 3000; n++)
+    {
+      sample(power, 2 * PowerManager.CURRENT_LIMIT, VOLTS);
+    }
+    assertEquals(max, power.shedAmps, 1e-9);
+    assertEquals("arm left alone", 1, power.scale(PowerManager.ARM), 0);
+    assertEquals("drive took the arm's share", PowerManager.MIN_SCALE[PowerManager.DRIVE],
+                 power.scale(PowerManager.DRIVE), 1e-9);
+  }
+
+  @Test
+  public void lowestPriorityShedsFirst()
+  {
+    PowerManager power = new PowerManager();
+    //just enough over to take the compressor and part of the intake
+    sample(power, PowerManager.CURRENT_LIMIT + 2 * (PowerManager.PEAK_AMPS[PowerManager.COMPRESSOR] + 10), VOLTS);
+    assertTrue(power.compressorPaused);
+    assertEquals(0, power.scale(PowerManager.COMPRESSOR), 1e-9);
+    assertEquals(1 - 10 / PowerManager.PEAK_AMPS[PowerManager.INTAKE], power.scale(PowerManager.INTAKE), 1e-9);
+    assertEquals(1, power.scale(PowerManager.ARM), 0);
+    assertEquals(1, power.scale(PowerManager.DRIVE), 0);
+  }
+}